@@ -16,6 +16,7 @@
  */
 package com.redhat.cloud.policies.app;
 
+import io.smallrye.mutiny.Uni;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.HeaderParam;
@@ -44,7 +45,7 @@ public interface NotificationSystem {
 
     @GET
     @Path("/api/notifications/v1.0/user-config/notification-preference/{bundleName}/{applicationName}")
-    UserPreferences getUserPreferences(
+    Uni<UserPreferences> getUserPreferences(
             @PathParam("bundleName") String bundleName,
             @PathParam("applicationName") String applicationName,
             @HeaderParam("x-rh-identity") String rhIdentity);
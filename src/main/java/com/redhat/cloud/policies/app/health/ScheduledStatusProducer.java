@@ -22,6 +22,8 @@ import com.redhat.cloud.policies.app.model.Policy;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.faulttolerance.api.CircuitBreakerMaintenance;
+import io.smallrye.faulttolerance.api.CircuitBreakerState;
 import jakarta.annotation.PostConstruct;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
@@ -47,6 +49,9 @@ public class ScheduledStatusProducer {
     @RestClient
     LightweightEngine lightweightEngine;
 
+    @Inject
+    CircuitBreakerMaintenance circuitBreakerMaintenance;
+
     @Inject
     MeterRegistry registry;
 
@@ -80,6 +85,12 @@ public class ScheduledStatusProducer {
             issues.put("engine", e.getMessage());
         }
 
+        // While not closed, policy validations are rejected without calling the engine
+        CircuitBreakerState engineCircuitBreaker = circuitBreakerMaintenance.currentState(LightweightEngine.CIRCUIT_BREAKER);
+        if (engineCircuitBreaker != CircuitBreakerState.CLOSED) {
+            issues.put("engine-circuit-breaker", engineCircuitBreaker.name());
+        }
+
         StuffHolder.getInstance().setStatusInfo(issues);
     }
 
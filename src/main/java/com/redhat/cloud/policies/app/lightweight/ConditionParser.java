@@ -0,0 +1,229 @@
+package com.redhat.cloud.policies.app.lightweight;
+
+import jakarta.validation.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Checks the syntax of a policy condition before it is sent to the engine, e.g.
+ * {@code facts.arch = 'x86_64' AND (cores > 4 OR facts.enabled_services contains ['sshd', 'httpd'])}.
+ *
+ * <pre>
+ * condition  := or EOF
+ * or         := and (OR and)*
+ * and        := unary (AND unary)*
+ * unary      := NOT unary | '(' or ')' | comparison
+ * comparison := key [operator operand]
+ * operator   := = | == | != | &lt; | &lt;= | &gt; | &gt;= | contains | matches | [NOT] in
+ * operand    := value | '[' value (',' value)* ']'
+ * key, value := word | 'quoted' | "quoted"
+ * </pre>
+ *
+ * The grammar is on the lenient side of the one of the engine: a condition rejected here
+ * would be rejected by the engine as well, the other way around is not guaranteed.
+ */
+public class ConditionParser {
+
+    private static final Set<String> OPERATORS = Set.of("=", "==", "!=", "<", "<=", ">", ">=");
+    private static final Set<String> KEYWORD_OPERATORS = Set.of("contains", "matches", "in");
+    private static final Set<String> KEYWORDS = Set.of("and", "or", "not", "contains", "matches", "in");
+    private static final String OPERATOR_CHARS = "=!<>";
+    private static final String PUNCTUATION = "()[],";
+
+    private enum Type { WORD, STRING, OPERATOR, PUNCTUATION, END }
+
+    private record Token(Type type, String text, int position) {
+
+        boolean is(String keyword) {
+            return type == Type.WORD && text.equalsIgnoreCase(keyword);
+        }
+
+        boolean isPunctuation(char c) {
+            return type == Type.PUNCTUATION && text.charAt(0) == c;
+        }
+
+        boolean isKeyword() {
+            return type == Type.WORD && KEYWORDS.contains(text.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final String condition;
+    private final Predicate<String> knownFact;
+    private final List<Token> tokens;
+    private int next;
+
+    private ConditionParser(String condition, Predicate<String> knownFact) {
+        this.condition = condition;
+        this.knownFact = knownFact;
+        this.tokens = tokenize(condition);
+    }
+
+    /**
+     * @param knownFact Tells whether a key of the condition is a fact that exists, keys are not checked if null
+     * @throws ValidationException if the condition is not valid
+     */
+    public static void parse(String condition, Predicate<String> knownFact) {
+        new ConditionParser(condition, knownFact).parseCondition();
+    }
+
+    private void parseCondition() {
+        if (peek().type == Type.END) {
+            throw error("Empty condition", peek());
+        }
+        parseOr();
+        if (peek().type != Type.END) {
+            throw error("Unexpected '" + peek().text + "'", peek());
+        }
+    }
+
+    private void parseOr() {
+        parseAnd();
+        while (peek().is("or")) {
+            next++;
+            parseAnd();
+        }
+    }
+
+    private void parseAnd() {
+        parseUnary();
+        while (peek().is("and")) {
+            next++;
+            parseUnary();
+        }
+    }
+
+    private void parseUnary() {
+        Token token = peek();
+        if (token.is("not")) {
+            next++;
+            parseUnary();
+        } else if (token.isPunctuation('(')) {
+            next++;
+            parseOr();
+            expectPunctuation(')');
+        } else {
+            parseComparison();
+        }
+    }
+
+    private void parseComparison() {
+        Token key = take();
+        if (key.type != Type.WORD && key.type != Type.STRING || key.isKeyword()) {
+            throw error("Expected a fact", key);
+        }
+        if (knownFact != null && !knownFact.test(key.text)) {
+            throw error("Unknown fact '" + key.text + "'", key);
+        }
+
+        Token operator = peek();
+        if (operator.type == Type.OPERATOR) {
+            next++;
+        } else if (operator.is("not") && tokens.get(next + 1).is("in")) {
+            next += 2;
+        } else if (operator.type == Type.WORD && KEYWORD_OPERATORS.contains(operator.text.toLowerCase(Locale.ROOT))) {
+            next++;
+        } else {
+            // A fact on its own checks whether it is set
+            return;
+        }
+        parseOperand();
+    }
+
+    private void parseOperand() {
+        if (peek().isPunctuation('[')) {
+            next++;
+            parseValue();
+            while (peek().isPunctuation(',')) {
+                next++;
+                parseValue();
+            }
+            expectPunctuation(']');
+        } else {
+            parseValue();
+        }
+    }
+
+    private void parseValue() {
+        Token value = take();
+        if (value.type != Type.WORD && value.type != Type.STRING || value.isKeyword()) {
+            throw error("Expected a value", value);
+        }
+    }
+
+    private void expectPunctuation(char c) {
+        Token token = take();
+        if (!token.isPunctuation(c)) {
+            throw error("Expected '" + c + "'", token);
+        }
+    }
+
+    private Token peek() {
+        return tokens.get(next);
+    }
+
+    private Token take() {
+        Token token = tokens.get(next);
+        if (token.type != Type.END) {
+            next++;
+        }
+        return token;
+    }
+
+    private ValidationException error(String reason, Token token) {
+        String where = token.type == Type.END ? "at the end" : "at position " + (token.position + 1);
+        return new ValidationException("Validation failed: " + reason + " " + where + " of [" + condition + "]");
+    }
+
+    private List<Token> tokenize(String condition) {
+        List<Token> result = new ArrayList<>();
+        int i = 0;
+        while (i < condition.length()) {
+            char c = condition.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (PUNCTUATION.indexOf(c) >= 0) {
+                result.add(new Token(Type.PUNCTUATION, String.valueOf(c), start));
+                i++;
+            } else if (c == '"' || c == '\'') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (i < condition.length() && condition.charAt(i) != c) {
+                    if (condition.charAt(i) == '\\' && i + 1 < condition.length()) {
+                        i++;
+                    }
+                    value.append(condition.charAt(i++));
+                }
+                if (i == condition.length()) {
+                    throw error("Unterminated quote", new Token(Type.STRING, value.toString(), start));
+                }
+                i++;
+                result.add(new Token(Type.STRING, value.toString(), start));
+            } else if (OPERATOR_CHARS.indexOf(c) >= 0) {
+                while (i < condition.length() && OPERATOR_CHARS.indexOf(condition.charAt(i)) >= 0) {
+                    i++;
+                }
+                Token operator = new Token(Type.OPERATOR, condition.substring(start, i), start);
+                if (!OPERATORS.contains(operator.text)) {
+                    throw error("Unknown operator '" + operator.text + "'", operator);
+                }
+                result.add(operator);
+            } else {
+                while (i < condition.length() && isWordChar(condition.charAt(i))) {
+                    i++;
+                }
+                result.add(new Token(Type.WORD, condition.substring(start, i), start));
+            }
+        }
+        result.add(new Token(Type.END, "", condition.length()));
+        return result;
+    }
+
+    private static boolean isWordChar(char c) {
+        return !Character.isWhitespace(c) && PUNCTUATION.indexOf(c) < 0 && OPERATOR_CHARS.indexOf(c) < 0
+                && c != '"' && c != '\'';
+    }
+}
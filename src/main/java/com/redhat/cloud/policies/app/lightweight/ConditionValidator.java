@@ -0,0 +1,236 @@
+package com.redhat.cloud.policies.app.lightweight;
+
+import com.redhat.cloud.policies.app.model.Fact;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.cache.CaffeineCache;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.faulttolerance.exceptions.FaultToleranceException;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.validation.ValidationException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Validates policy conditions with the engine, once their syntax has been checked locally
+ * by the {@link ConditionParser}. The outcome is cached by condition, successes for
+ * long, as a condition does not become invalid afterwards, and rejections shortly.
+ * TTL and size of the caches are defined in application.properties
+ * quarkus.cache.caffeine.condition-validation-cache and condition-rejection-cache.
+ * Failures to reach the engine are never cached.
+ */
+@ApplicationScoped
+public class ConditionValidator {
+
+    private static final String FACTS_PREFIX = "facts.";
+
+    @Inject
+    @RestClient
+    LightweightEngine lightweightEngine;
+
+    // Upper bound of the validation calls in flight at the same time towards the engine
+    @ConfigProperty(name = "policies.validation.parallelism", defaultValue = "8")
+    int parallelism;
+
+    // Max wait for the engine to validate one condition, above the connect and read timeouts of the REST client
+    @ConfigProperty(name = "policies.validation.timeout", defaultValue = "5S")
+    Duration timeout;
+
+    // Whether the keys of a condition must be facts of the fact table. The engine accepts any key.
+    @ConfigProperty(name = "policies.validation.check-facts", defaultValue = "false")
+    boolean checkFacts;
+
+    @Inject
+    @CacheName("condition-validation-cache")
+    Cache validations;
+
+    @Inject
+    @CacheName("condition-rejection-cache")
+    Cache rejections;
+
+    @Inject
+    MeterRegistry registry;
+
+    // Loaded at startup, the conditions can then be parsed from any thread, including the event loop
+    private volatile Set<String> facts = Set.of();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter locallyRejected;
+    private Counter savedSeconds;
+    private Timer engineTimer;
+
+    @PostConstruct
+    void init() {
+        hits = registry.counter("condition.validation.cache", "result", "hit");
+        misses = registry.counter("condition.validation.cache", "result", "miss");
+        locallyRejected = registry.counter("condition.validation.local.rejected");
+        // Estimated with the mean duration of the engine calls
+        savedSeconds = Counter.builder("condition.validation.cache.saved")
+                .baseUnit("seconds")
+                .description("Engine validation time saved by the cache")
+                .register(registry);
+        engineTimer = registry.timer("condition.validation.engine");
+    }
+
+    void loadFacts(@Observes StartupEvent event) {
+        if (checkFacts) {
+            // The fact table is only changed by migrations
+            facts = QuarkusTransaction.requiringNew().call(() ->
+                    Fact.getFacts().stream().map(fact -> fact.name).collect(Collectors.toUnmodifiableSet()));
+        }
+    }
+
+    /**
+     * Validates the condition with the engine, without blocking the calling thread, through the circuit breaker
+     * of the engine client. The returned {@link Uni} fails with a {@link ValidationException} if the engine
+     * rejects the condition, or with a {@link io.smallrye.mutiny.TimeoutException} if it did not answer in time.
+     */
+    public Uni<Void> validateConditionAsync(String condition) {
+        return Uni.createFrom().deferred(() -> {
+            String key = normalize(condition);
+            if (isCachedValid(key)) {
+                return Uni.createFrom().voidItem();
+            }
+
+            try {
+                ConditionParser.parse(condition, checkFacts ? this::isKnownFact : null);
+            } catch (ValidationException e) {
+                locallyRejected.increment();
+                throw e;
+            }
+
+            long start = System.nanoTime();
+            return lightweightEngine.validateConditionAsync(condition)
+                    .onItemOrFailure().invoke((ignored, failure) -> remember(key, start, failure))
+                    .ifNoItem().after(timeout).fail();
+        });
+    }
+
+    /**
+     * @return true if the condition is known to be valid, false if the engine has to be asked
+     * @throws ValidationException if the condition was rejected recently
+     */
+    private boolean isCachedValid(String key) {
+        String rejection = (String) getIfPresent(rejections, key);
+        if (rejection != null) {
+            hit();
+            throw new ValidationException(rejection);
+        }
+        if (getIfPresent(validations, key) != null) {
+            hit();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    private void remember(String key, long start, Throwable failure) {
+        if (failure instanceof FaultToleranceException) {
+            // Rejected by the circuit breaker or the bulkhead, the engine was not called
+            return;
+        }
+        engineTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (failure == null) {
+            validations.as(CaffeineCache.class).put(key, CompletableFuture.completedFuture(Boolean.TRUE));
+        } else if (failure instanceof ValidationException) {
+            rejections.as(CaffeineCache.class).put(key, CompletableFuture.completedFuture(failure.getMessage()));
+        }
+    }
+
+    boolean isKnownFact(String key) {
+        String path = key.startsWith(FACTS_PREFIX) ? key.substring(FACTS_PREFIX.length()) : key;
+        while (true) {
+            if (facts.contains(path) || facts.contains(FACTS_PREFIX + path)) {
+                return true;
+            }
+            // A fact with nested values, such as facts.ansible, covers its sub paths
+            int dot = path.lastIndexOf('.');
+            if (dot < 0) {
+                return false;
+            }
+            path = path.substring(0, dot);
+        }
+    }
+
+    private void hit() {
+        hits.increment();
+        savedSeconds.increment(engineTimer.mean(TimeUnit.SECONDS));
+    }
+
+    private static Object getIfPresent(Cache cache, String key) {
+        CompletableFuture<Object> value = cache.as(CaffeineCache.class).getIfPresent(key);
+        return value == null ? null : value.join();
+    }
+
+    /**
+     * Collapses the whitespace runs of a condition into a single space, except within quoted values,
+     * so that conditions which only differ by their formatting share their cache entry.
+     */
+    static String normalize(String condition) {
+        StringBuilder sb = new StringBuilder(condition.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (char c : condition.strip().toCharArray()) {
+            if (quote == 0 && Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Validates the given conditions concurrently, at most {@code policies.validation.parallelism} at a time.
+     * Each distinct condition is only sent once to the engine.
+     *
+     * @return The failure of every condition which did not validate, keyed by condition
+     */
+    public Map<String, Exception> validateConditions(Collection<String> conditions) {
+        Set<String> distinct = new LinkedHashSet<>(conditions);
+        // Each validation is bounded by the timeout, they run in waves of parallelism validations
+        Duration maxWait = timeout.multipliedBy((distinct.size() + parallelism - 1) / parallelism + 1);
+        return Multi.createFrom().iterable(distinct)
+                .onItem().transformToUni(condition -> validateConditionAsync(condition)
+                        .onItemOrFailure().transform((ignored, failure) -> new Outcome(condition, failure)))
+                .merge(parallelism)
+                .select().where(outcome -> outcome.failure() != null)
+                .collect().asMap(Outcome::condition, Outcome::exception)
+                .await().atMost(maxWait);
+    }
+
+    private record Outcome(String condition, Throwable failure) {
+
+        Exception exception() {
+            return failure instanceof Exception e ? e : new RuntimeException(failure);
+        }
+    }
+}
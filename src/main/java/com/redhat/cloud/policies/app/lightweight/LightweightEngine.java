@@ -1,14 +1,21 @@
 package com.redhat.cloud.policies.app.lightweight;
 
 import com.redhat.cloud.policies.app.EngineResponseExceptionMapper;
+import io.smallrye.faulttolerance.api.CircuitBreakerName;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.faulttolerance.Bulkhead;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import jakarta.validation.ValidationException;
 import jakarta.validation.constraints.NotNull;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 
+import java.time.temporal.ChronoUnit;
+
 import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN;
 
 // TODO POL-649 Retries on all calls: https://quarkus.io/guides/smallrye-fault-tolerance
@@ -17,6 +24,8 @@ import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN;
 @RegisterProvider(EngineResponseExceptionMapper.class)
 public interface LightweightEngine {
 
+    String CIRCUIT_BREAKER = "engine";
+
     /**
      * Validates a condition like {@code facts.arch = 'x86_64'} with Hawkular.
      * @param condition the condition to validate
@@ -25,4 +34,20 @@ public interface LightweightEngine {
     @Path("/validate")
     @Consumes(TEXT_PLAIN)
     void validateCondition(@NotNull String condition);
+
+    /**
+     * Same as {@link #validateCondition(String)}, without blocking the calling thread.
+     * When the engine keeps failing or is saturated, calls fail right away with a
+     * {@link org.eclipse.microprofile.faulttolerance.exceptions.FaultToleranceException}.
+     * A rejected condition is not a failure of the engine.
+     * @param condition the condition to validate
+     */
+    @CircuitBreaker(requestVolumeThreshold = 10, failureRatio = 0.5, delay = 10, delayUnit = ChronoUnit.SECONDS,
+            skipOn = ValidationException.class)
+    @CircuitBreakerName(CIRCUIT_BREAKER)
+    @Bulkhead(value = 20, waitingTaskQueue = 50)
+    @PUT
+    @Path("/validate")
+    @Consumes(TEXT_PLAIN)
+    Uni<Void> validateConditionAsync(@NotNull String condition);
 }
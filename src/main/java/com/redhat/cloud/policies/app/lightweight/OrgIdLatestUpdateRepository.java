@@ -3,24 +3,29 @@ package com.redhat.cloud.policies.app.lightweight;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
-import jakarta.transaction.Transactional;
-import java.time.LocalDateTime;
-
-import static java.time.ZoneOffset.UTC;
 
+/**
+ * The org_id_latest_update row of an org is written by the trigger_policy_org_id_latest_update_* triggers
+ * whenever a statement changes policies of the org, within the transaction which changed them.
+ */
 @ApplicationScoped
 public class OrgIdLatestUpdateRepository {
 
     @Inject
     EntityManager entityManager;
 
-    @Transactional
-    public void setLatestToNow(String orgId) {
-        String sql = "INSERT INTO org_id_latest_update (org_id, latest) SELECT :orgId, :latest " +
-                "ON CONFLICT (org_id) DO UPDATE SET latest = :latest";
-        entityManager.createNativeQuery(sql)
+    /**
+     * Returns a value which changes whenever a policy of the org is created, updated, deleted or triggered,
+     * as soon as the change is committed. The org_id_latest_update row is not written when a policy is only
+     * triggered, the sum of the last trigger times of the org accounts for it: they only ever grow. Both are
+     * read in one statement, a lookup of the org_id_latest_update primary key and a scan of the org range of
+     * ix_policy_org_id_last_triggered_id.
+     */
+    public String getPoliciesVersion(String orgId) {
+        String sql = "SELECT COALESCE((SELECT version FROM org_id_latest_update WHERE org_id = :orgId), 0) || '-' || " +
+                "COALESCE((SELECT SUM(last_triggered) FROM policy WHERE org_id = :orgId), 0)";
+        return (String) entityManager.createNativeQuery(sql, String.class)
                 .setParameter("orgId", orgId)
-                .setParameter("latest", LocalDateTime.now(UTC))
-                .executeUpdate();
+                .getSingleResult();
     }
 }
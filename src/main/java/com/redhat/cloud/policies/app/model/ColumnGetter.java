@@ -32,28 +32,44 @@ public class ColumnGetter {
 
     public ColumnInfo get(String queriedName) {
         for (Field field : model.getDeclaredFields()) {
-            QueryableColumn ann = field.getAnnotation(QueryableColumn.class);
-            if (ann == null) {
-                continue;
+            ColumnInfo info = toColumnInfo(field);
+            if (info != null && info.getName().equals(queriedName)) {
+                return info;
             }
+        }
+        return null;
+    }
 
-            String name = ann.name();
-            if (name.isEmpty()) {
-                Column jakartaAnn = field.getAnnotation(Column.class);
-                if (jakartaAnn != null) {
-                    name = jakartaAnn.name();
-                }
-                if (name == null || name.isEmpty()) {
-                    name = field.getName();
-                }
+    /**
+     * Look up a queryable column by the name of the entity field backing it.
+     */
+    public ColumnInfo getByFieldName(String fieldName) {
+        for (Field field : model.getDeclaredFields()) {
+            if (field.getName().equals(fieldName)) {
+                return toColumnInfo(field);
             }
+        }
+        return null;
+    }
 
-            if (name.equals(queriedName)) {
-                return new ColumnInfo(name, field.getName(), ann.filterable(), ann.sortable());
-            }
+    private static ColumnInfo toColumnInfo(Field field) {
+        QueryableColumn ann = field.getAnnotation(QueryableColumn.class);
+        if (ann == null) {
+            return null;
+        }
 
+        String name = ann.name();
+        if (name.isEmpty()) {
+            Column jakartaAnn = field.getAnnotation(Column.class);
+            if (jakartaAnn != null) {
+                name = jakartaAnn.name();
+            }
+            if (name == null || name.isEmpty()) {
+                name = field.getName();
+            }
         }
-        return null;
+
+        return new ColumnInfo(name, field.getName(), ann.filterable(), ann.sortable(), ann.selectable());
     }
 
 }
@@ -21,12 +21,19 @@ public class ColumnInfo {
     private final String fieldName;
     private final boolean isFilterable;
     private final boolean isSortable;
+    private final boolean isSelectable;
 
     public ColumnInfo(final String name, final String fieldName, final boolean isFilterable, final boolean isSortable) {
+        this(name, fieldName, isFilterable, isSortable, false);
+    }
+
+    public ColumnInfo(final String name, final String fieldName, final boolean isFilterable, final boolean isSortable,
+                      final boolean isSelectable) {
         this.name = name;
         this.fieldName = fieldName;
         this.isFilterable = isFilterable;
         this.isSortable = isSortable;
+        this.isSelectable = isSelectable;
     }
 
     public String getName() {
@@ -44,4 +51,8 @@ public class ColumnInfo {
     public boolean isSortable() {
         return isSortable;
     }
+
+    public boolean isSelectable() {
+        return isSelectable;
+    }
 }
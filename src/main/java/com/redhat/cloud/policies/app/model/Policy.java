@@ -19,6 +19,7 @@ package com.redhat.cloud.policies.app.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.redhat.cloud.policies.app.model.pager.Cursor;
 import com.redhat.cloud.policies.app.model.pager.Page;
 import com.redhat.cloud.policies.app.model.pager.Pager;
 import com.redhat.cloud.policies.app.model.annotations.QueryableColumn;
@@ -26,23 +27,43 @@ import com.redhat.cloud.policies.app.model.filter.Filter;
 import com.redhat.cloud.policies.app.model.validation.ValidActionS;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import io.quarkus.hibernate.orm.panache.PanacheQuery;
+import io.quarkus.panache.common.Parameters;
 import io.quarkus.panache.common.Sort;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Id;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 
 import io.quarkus.runtime.annotations.RegisterForReflection;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.query.NativeQuery;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
@@ -50,8 +71,15 @@ import org.eclipse.microprofile.openapi.annotations.media.Schema;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Policy extends PanacheEntityBase {
 
+    private static final Set<String> KEYSET_FIELDS = Set.of("name", "isEnabled", "mtime", "lastTriggered");
+    private static final Pattern PLAN_ROWS_PATTERN = Pattern.compile("rows=(\\d+)");
+    private static final int STREAM_FETCH_SIZE = 100;
+    // Ids are small, a batch of them costs about as much as a batch of policies
+    private static final int ID_STREAM_FETCH_SIZE = 1000;
+
     // The ID will be created by code.
     @Id
+    @QueryableColumn(sortable = false, selectable = true)
     public
     UUID id;
 
@@ -66,26 +94,28 @@ public class Policy extends PanacheEntityBase {
     @NotEmpty
     @Schema(description = "Name of the rule. Must be unique per customer organization.")
     @Size(max = 150)
-    @QueryableColumn(filterable = true)
+    @QueryableColumn(filterable = true, selectable = true)
     public String name;
 
     @Schema(description = "A short description of the policy.")
-    @QueryableColumn(filterable = true)
+    @QueryableColumn(filterable = true, selectable = true)
     public String description;
 
     @Column(name = "is_enabled")
-    @QueryableColumn(filterable = true)
+    @QueryableColumn(filterable = true, selectable = true)
     public boolean isEnabled;
 
     @Schema(description = "Condition string.",
             example = "arch = \"x86_64\"")
     @NotEmpty
     @NotNull
+    @QueryableColumn(sortable = false, selectable = true)
     public String conditions;
 
     @Schema(description = "String describing actions separated by ';' when the policy is evaluated to true." +
             "Allowed values is 'notification'")
     @ValidActionS
+    @QueryableColumn(sortable = false, selectable = true)
     public String actions;
 
     @Schema(type = SchemaType.STRING,
@@ -94,7 +124,7 @@ public class Policy extends PanacheEntityBase {
             format = "yyyy-MM-dd hh:mm:ss.ddd",
             implementation = String.class)
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
-    @QueryableColumn
+    @QueryableColumn(selectable = true)
     private Timestamp mtime = new Timestamp(System.currentTimeMillis());
 
     @Schema(type = SchemaType.STRING,
@@ -103,19 +133,24 @@ public class Policy extends PanacheEntityBase {
             format = "yyyy-MM-dd hh:mm:ss.ddd",
             implementation = String.class)
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @QueryableColumn(sortable = false, selectable = true)
     private Timestamp ctime = new Timestamp(System.currentTimeMillis());
 
     @Column(name = "last_triggered", insertable = false, updatable = false)
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
-    @QueryableColumn
+    @QueryableColumn(selectable = true)
     private long lastTriggered;
 
+    @JsonIgnore
+    private long version;
+
     public void setMtime(String mtime) {
         this.mtime = Timestamp.valueOf(mtime);
     }
 
     public void setMtimeToNow() {
         this.mtime = new Timestamp(System.currentTimeMillis());
+        version++;
     }
 
     public String getMtime() {
@@ -130,6 +165,13 @@ public class Policy extends PanacheEntityBase {
         return lastTriggered;
     }
 
+    /**
+     * @return A number that grows with every change made to the policy through the API
+     */
+    public long getVersion() {
+        return version;
+    }
+
     public void setCtime(String ctime) {
         this.ctime = Timestamp.valueOf(ctime);
     }
@@ -139,45 +181,596 @@ public class Policy extends PanacheEntityBase {
     }
 
     public static Page<Policy> pagePoliciesForCustomer(EntityManager em, String orgid, Pager pager) {
+        if (pager.isKeyset()) {
+            return seekPoliciesForCustomer(em, orgid, pager);
+        }
+
         Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgid);
 
+        if (pager.getCountMode() == Pager.CountMode.EXACT) {
+            return pageWithWindowCount(em, filter, pager);
+        }
+
         PanacheQuery<Policy> panacheQuery = find(
                 filter.getQuery(),
                 pager.getSort(),
                 filter.getParameters()
         );
 
+        if (pager.getCountMode() == Pager.CountMode.NONE) {
+            if (pager.getLimit() == Pager.NO_LIMIT) {
+                return new Page<>(panacheQuery.list(), pager, false);
+            }
+            // Fetch one more row than requested to find out whether there is a next page
+            List<Policy> policies = panacheQuery.range(pager.getOffset(), pager.getOffset() + pager.getLimit()).list();
+            boolean hasNext = policies.size() > pager.getLimit();
+            if (hasNext) {
+                policies = new ArrayList<>(policies.subList(0, pager.getLimit()));
+            }
+            return new Page<>(policies, pager, hasNext);
+        }
+
         if (pager.getLimit() != Pager.NO_LIMIT) {
             panacheQuery.range(pager.getOffset(), pager.getOffset() + pager.getLimit() - 1);
         }
 
-        return new Page<>(
-                panacheQuery.list(),
-                pager,
-                panacheQuery.count()
-        );
+        return new Page<>(panacheQuery.list(), pager, estimateCount(em, filter));
+    }
+
+    /**
+     * Fetches the page and the total count of the filtered rows in a single statement, the count being
+     * computed by a {@code COUNT(*) OVER ()} window and returned along with every row of the page.
+     * The window is only visible through the returned rows, so a page past the end needs the extra count.
+     */
+    static Page<Policy> pageWithWindowCount(EntityManager em, Filter filter, Pager pager) {
+        String hql = "SELECT p, COUNT(*) OVER () FROM Policy p WHERE " + filter.getQuery() + getOrderBy(pager.getSort());
+
+        TypedQuery<Object[]> query = em.createQuery(hql, Object[].class);
+        filter.getParameters().map().forEach(query::setParameter);
+        if (pager.getLimit() != Pager.NO_LIMIT) {
+            query.setFirstResult(pager.getOffset());
+            query.setMaxResults(pager.getLimit());
+        }
+
+        List<Object[]> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            long totalCount = pager.getOffset() > 0 ? count(filter.getQuery(), filter.getParameters()) : 0;
+            return new Page<>(List.of(), pager, totalCount);
+        }
+
+        List<Policy> policies = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            policies.add((Policy) row[0]);
+        }
+        return new Page<>(policies, pager, (Long) rows.get(0)[1]);
+    }
+
+    /**
+     * The former way of fetching an exactly counted page, with a COUNT query next to the page query.
+     * It is kept as the reference the single statement variant is checked against.
+     */
+    static Page<Policy> pageWithSeparateCount(Filter filter, Pager pager) {
+        PanacheQuery<Policy> panacheQuery = find(filter.getQuery(), withIdTieBreaker(pager.getSort()), filter.getParameters());
+        if (pager.getLimit() != Pager.NO_LIMIT) {
+            panacheQuery.range(pager.getOffset(), pager.getOffset() + pager.getLimit() - 1);
+        }
+        return new Page<>(panacheQuery.list(), pager, panacheQuery.count());
     }
 
-    public static List<UUID> getPolicyIdsForCustomer(EntityManager em, String orgId, Pager pager) {
+    /*
+     * The column names come from the pager, which only accepts the @QueryableColumn fields of the entity.
+     */
+    private static String getOrderBy(Sort sort) {
+        List<String> orderByItems = new ArrayList<>();
+        for (Sort.Column column : withIdTieBreaker(sort).getColumns()) {
+            orderByItems.add("p." + column.getName() + (column.getDirection() == Sort.Direction.Descending ? " DESC" : " ASC"));
+        }
+        return " ORDER BY " + String.join(", ", orderByItems);
+    }
+
+    /*
+     * Rows with equal sort values would otherwise come back in any order, and could then move between pages.
+     */
+    private static Sort withIdTieBreaker(Sort sort) {
+        Sort result = Sort.empty();
+        boolean hasId = false;
+        for (Sort.Column column : sort.getColumns()) {
+            result.and(column.getName(), column.getDirection());
+            hasId |= "id".equals(column.getName());
+        }
+        return hasId ? result : result.and("id");
+    }
+
+    /**
+     * Streams all the policies matching the pager, ignoring its offset and limit. The rows are read from the
+     * database in batches as the stream is consumed, which needs to happen within a transaction.
+     */
+    public static Stream<Policy> streamPoliciesForCustomer(String orgId, Pager pager) {
         Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+        return find(filter.getQuery(), pager.getSort(), filter.getParameters())
+                .withHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .stream();
+    }
 
+    /**
+     * Counts the policies matching the pager as its count mode asks for.
+     *
+     * @return The count, or {@link Page#UNKNOWN_COUNT} for {@link Pager.CountMode#NONE}
+     */
+    public static long countPoliciesForCustomer(EntityManager em, String orgId, Pager pager) {
+        return countPolicies(em, pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId), pager.getCountMode());
+    }
 
-        PanacheQuery<Policy> panacheQuery = find(
-                filter.getQuery(),
-                filter.getParameters()
-        );
+    public static boolean hasPoliciesForCustomer(String orgId, Pager pager) {
+        Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+        return find(filter.getQuery(), filter.getParameters()).firstResultOptional().isPresent();
+    }
+
+    private static long countPolicies(EntityManager em, Filter filter, Pager.CountMode countMode) {
+        switch (countMode) {
+            case NONE:
+                return Page.UNKNOWN_COUNT;
+            case ESTIMATE:
+                return estimateCount(em, filter);
+            default:
+                return count(filter.getQuery(), filter.getParameters());
+        }
+    }
+
+    /**
+     * Keyset variant of {@link #pagePoliciesForCustomer(EntityManager, String, Pager)}. Instead of skipping
+     * OFFSET rows, the query seeks past the (sort column, id) tuple of the last item of the previous page.
+     * The (org_id, sort column, id) indexes of V35 serve it directly no matter how deep the client pages.
+     */
+    static Page<Policy> seekPoliciesForCustomer(EntityManager em, String orgId, Pager pager) {
+        Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+        long totalCount = countPolicies(em, filter, pager.getCountMode());
+
+        Seek seek = new Seek(filter, pager);
+        PanacheQuery<Policy> panacheQuery = find(seek.query, seek.sort, seek.parameters);
+
+        List<Policy> policies;
+        Cursor nextCursor = null;
+        if (pager.getLimit() == Pager.NO_LIMIT) {
+            policies = panacheQuery.list();
+        } else {
+            // The extra row of pagePoliciesForCustomer without count
+            policies = panacheQuery.range(0, pager.getLimit()).list();
+            if (policies.size() > pager.getLimit()) {
+                policies = new ArrayList<>(policies.subList(0, pager.getLimit()));
+                Policy last = policies.get(policies.size() - 1);
+                nextCursor = new Cursor(seek.field, seek.direction, last.id, last.getKeysetValue(seek.field));
+            }
+        }
+
+        return new Page<>(policies, pager, totalCount, nextCursor);
+    }
+
+    /*
+     * The query of a keyset page: it seeks past the cursor, if any, in a total order of the sort column and the id.
+     */
+    private static class Seek {
+        final String field;
+        final Sort.Direction direction;
+        final Sort sort;
+        final String query;
+        final Parameters parameters;
+
+        Seek(Filter filter, Pager pager) {
+            Sort.Column sortColumn = pager.getSort().getColumns().get(0);
+            field = sortColumn.getName();
+            direction = sortColumn.getDirection();
+            if (!KEYSET_FIELDS.contains(field)) {
+                // description is nullable, and NULLs can not be seeked over with a plain comparison
+                throw new IllegalArgumentException("Column [" + field + "] can not be used with cursor paging");
+            }
+            // Make the order total, otherwise rows with the same sort value could be skipped or repeated
+            sort = Sort.by(field, direction).and("id", direction);
+
+            String seekQuery = filter.getQuery();
+            parameters = filter.getParameters();
+            Cursor cursor = pager.getCursor();
+            if (cursor != null) {
+                Object value = parseKeysetValue(field, cursor.getValue());
+                String comparator = direction == Sort.Direction.Ascending ? ">" : "<";
+                String beyondValue = String.format("%s %s :cursorValue", field, comparator);
+                // The OR alone can't bound the index scan, this redundant condition does
+                String bound = String.format(" and %s %s= :cursorValue", field, comparator);
+                if (value instanceof Boolean) {
+                    // Booleans are not ordered in HQL. Only the other value can come after the cursor, if any.
+                    boolean hasBeyond = (direction == Sort.Direction.Ascending) != (Boolean) value;
+                    beyondValue = hasBeyond ? field + " <> :cursorValue" : "1 = 0";
+                    bound = hasBeyond ? "" : String.format(" and %s = :cursorValue", field);
+                }
+                seekQuery += String.format("%s and (%s or (%s = :cursorValue and id %s :cursorId))",
+                        bound, beyondValue, field, comparator);
+                parameters.and("cursorValue", value).and("cursorId", cursor.getId());
+            }
+            query = seekQuery;
+        }
+    }
+
+    /**
+     * Same as {@link #pagePoliciesForCustomer(EntityManager, String, Pager)}, except that only the
+     * {@link Pager#getFields() fields} asked for are read. Each policy comes as a map from the field
+     * name to its value, in the form the entity serializes it.
+     */
+    public static Page<Map<String, Object>> pagePolicyFieldsForCustomer(EntityManager em, String orgId, Pager pager) {
+        Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+        List<String> fields = pager.getFields();
+
+        if (pager.isKeyset()) {
+            long totalCount = countPolicies(em, filter, pager.getCountMode());
+            Seek seek = new Seek(filter, pager);
+            // The next cursor is made of the sort field and the id, which may not be among the requested fields
+            List<String> selection = new ArrayList<>(fields);
+            for (String field : List.of(seek.field, "id")) {
+                if (!selection.contains(field)) {
+                    selection.add(field);
+                }
+            }
+            TypedQuery<Object[]> query = createFieldsQuery(em, selection, false, seek.query, seek.parameters, seek.sort);
+            if (pager.getLimit() != Pager.NO_LIMIT) {
+                query.setMaxResults(pager.getLimit() + 1);
+            }
+            List<Object[]> rows = query.getResultList();
+            Cursor nextCursor = null;
+            if (pager.getLimit() != Pager.NO_LIMIT && rows.size() > pager.getLimit()) {
+                rows = rows.subList(0, pager.getLimit());
+                Object[] last = rows.get(rows.size() - 1);
+                nextCursor = new Cursor(seek.field, seek.direction, (UUID) last[selection.indexOf("id")],
+                        String.valueOf(toJsonValue(last[selection.indexOf(seek.field)])));
+            }
+            return new Page<>(toFieldMaps(fields, rows), pager, totalCount, nextCursor);
+        }
+
+        Pager.CountMode countMode = pager.getCountMode();
+        boolean fetchOneMore = countMode == Pager.CountMode.NONE && pager.getLimit() != Pager.NO_LIMIT;
+        TypedQuery<Object[]> query = createFieldsQuery(em, fields, countMode == Pager.CountMode.EXACT,
+                filter.getQuery(), filter.getParameters(), pager.getSort());
+        if (pager.getLimit() != Pager.NO_LIMIT) {
+            query.setFirstResult(pager.getOffset());
+            // Without a count, one more row than requested tells whether there is a next page
+            query.setMaxResults(fetchOneMore ? pager.getLimit() + 1 : pager.getLimit());
+        }
+        List<Object[]> rows = query.getResultList();
+
+        switch (countMode) {
+            case NONE:
+                boolean hasNext = fetchOneMore && rows.size() > pager.getLimit();
+                if (hasNext) {
+                    rows = rows.subList(0, pager.getLimit());
+                }
+                return new Page<>(toFieldMaps(fields, rows), pager, hasNext);
+            case ESTIMATE:
+                return new Page<>(toFieldMaps(fields, rows), pager, estimateCount(em, filter));
+            default:
+                long totalCount;
+                if (rows.isEmpty()) {
+                    totalCount = pager.getOffset() > 0 ? count(filter.getQuery(), filter.getParameters()) : 0;
+                } else {
+                    // The window count follows the fields
+                    totalCount = (Long) rows.get(0)[fields.size()];
+                }
+                return new Page<>(toFieldMaps(fields, rows), pager, totalCount);
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #pagePolicyFieldsForCustomer(EntityManager, String, Pager)}, see
+     * {@link #streamPoliciesForCustomer(String, Pager)}.
+     */
+    public static Stream<Map<String, Object>> streamPolicyFieldsForCustomer(EntityManager em, String orgId, Pager pager) {
+        Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+        return createFieldsQuery(em, pager.getFields(), false, filter.getQuery(), filter.getParameters(), pager.getSort())
+                .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .getResultStream()
+                .map(row -> toFieldMap(pager.getFields(), row));
+    }
+
+    public static Optional<Map<String, Object>> findFieldsById(EntityManager em, String orgId, UUID theId, List<String> fields) {
+        return createFieldsQuery(em, fields, false, "orgId = :orgId and id = :id",
+                        Parameters.with("orgId", orgId).and("id", theId), Sort.empty())
+                .getResultStream()
+                .findFirst()
+                .map(row -> toFieldMap(fields, row));
+    }
+
+    /*
+     * The field names come from the pager, which only accepts the selectable @QueryableColumn fields of the entity.
+     */
+    private static TypedQuery<Object[]> createFieldsQuery(EntityManager em, List<String> fields, boolean windowCount,
+                                                          String where, Parameters parameters, Sort sort) {
+        List<String> selection = new ArrayList<>();
+        for (String field : fields) {
+            selection.add("p." + field);
+        }
+        if (windowCount) {
+            selection.add("COUNT(*) OVER ()");
+        }
+        String hql = "SELECT " + String.join(", ", selection) + " FROM Policy p WHERE " + where + getOrderBy(sort);
 
-        return panacheQuery.project(PolicyId.class).list().stream().map(policyId -> policyId.id).collect(Collectors.toList());
+        TypedQuery<Object[]> query = em.createQuery(hql, Object[].class);
+        parameters.map().forEach(query::setParameter);
+        return query;
+    }
+
+    private static List<Map<String, Object>> toFieldMaps(List<String> fields, List<Object[]> rows) {
+        List<Map<String, Object>> maps = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            maps.add(toFieldMap(fields, row));
+        }
+        return maps;
+    }
+
+    private static Map<String, Object> toFieldMap(List<String> fields, Object[] row) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            map.put(fields.get(i), toJsonValue(row[i]));
+        }
+        return map;
+    }
+
+    /*
+     * The entity exposes its timestamps through getters returning their string form.
+     */
+    private static Object toJsonValue(Object value) {
+        return value instanceof Timestamp ? value.toString() : value;
+    }
+
+    private String getKeysetValue(String field) {
+        switch (field) {
+            case "name":
+                return name;
+            case "isEnabled":
+                return String.valueOf(isEnabled);
+            case "mtime":
+                return mtime.toString();
+            case "lastTriggered":
+                return String.valueOf(lastTriggered);
+            default:
+                throw new IllegalArgumentException("Column [" + field + "] can not be used with cursor paging");
+        }
+    }
+
+    private static Object parseKeysetValue(String field, String value) {
+        try {
+            switch (field) {
+                case "name":
+                    return value;
+                case "isEnabled":
+                    return Boolean.valueOf(value);
+                case "mtime":
+                    return Timestamp.valueOf(value);
+                case "lastTriggered":
+                    return Long.valueOf(value);
+                default:
+                    throw new IllegalArgumentException("Column [" + field + "] can not be used with cursor paging");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor value for column [" + field + "]", e);
+        }
+    }
+
+    /**
+     * Ask the query planner how many rows the filter would match, without running the query.
+     * This avoids the full COUNT, but the number is only as good as the table statistics.
+     */
+    static long estimateCount(EntityManager em, Filter filter) {
+        Map<String, Object> values = filter.getParameters().map();
+        StringBuilder sql = new StringBuilder("EXPLAIN SELECT 1 FROM policy WHERE ");
+        List<Filter.FilterItem> items = filter.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            Filter.FilterItem item = items.get(i);
+            if (i > 0) {
+                sql.append(' ').append(item.type).append(' ');
+            }
+            String column = getColumnName(item.field);
+            switch (item.operator) {
+                case EQUAL:
+                    sql.append(column).append(" = :").append(item.field);
+                    break;
+                case NOT_EQUAL:
+                    sql.append(column).append(" <> :").append(item.field);
+                    break;
+                case LIKE:
+                    sql.append(column).append(" LIKE :").append(item.field);
+                    break;
+                case ILIKE:
+                    sql.append("LOWER(").append(column).append(") LIKE :").append(item.field);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operator: " + item.operator);
+            }
+        }
+
+        Query query = em.createNativeQuery(sql.toString());
+        for (Filter.FilterItem item : items) {
+            query.setParameter(item.field, values.get(item.field));
+        }
+
+        // The first line of the plan looks like "Seq Scan on policy  (cost=0.00..1.19 rows=12 width=4)"
+        List<?> plan = query.getResultList();
+        Matcher matcher = PLAN_ROWS_PATTERN.matcher(plan.get(0).toString());
+        if (!matcher.find()) {
+            throw new IllegalStateException("Unexpected query plan: " + plan.get(0));
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /*
+     * Maps the entity fields that the filters may contain to their columns. This is also a whitelist
+     * that keeps the native query above safe from injections.
+     */
+    private static String getColumnName(String field) {
+        switch (field) {
+            case "orgId":
+                return "org_id";
+            case "name":
+                return "name";
+            case "description":
+                return "description";
+            case "isEnabled":
+                return "is_enabled";
+            default:
+                throw new IllegalArgumentException("Unknown filter field: " + field);
+        }
+    }
+
+    /**
+     * Streams the ids of the policies matching the filters of the pager, straight from a forward-only
+     * cursor. Like {@link #streamPoliciesForCustomer(String, Pager)}, it needs to be consumed within a transaction.
+     */
+    public static Stream<UUID> streamPolicyIdsForCustomer(EntityManager em, String orgId, Pager pager) {
+        Filter filter = pager.getFilter().and("orgId", Filter.Operator.EQUAL, orgId);
+
+        TypedQuery<UUID> query = em.createQuery("SELECT p.id FROM Policy p WHERE " + filter.getQuery(), UUID.class);
+        filter.getParameters().map().forEach(query::setParameter);
+        return query.setHint(HibernateHints.HINT_FETCH_SIZE, ID_STREAM_FETCH_SIZE).getResultStream();
+    }
+
+    /**
+     * Deletes the policies of the org among the given ids, all in one statement. A tombstone is left
+     * for each of them, so that {@link #streamChangesSince(EntityManager, Timestamp)} reports the deletion.
+     *
+     * @return The ids of the policies that were actually deleted
+     */
+    @SuppressWarnings("unchecked")
+    public static List<UUID> deletePoliciesForCustomer(EntityManager em, String orgId, Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String sql = "WITH deleted AS (DELETE FROM policy WHERE org_id = :orgId AND id IN (:ids) RETURNING id, org_id) " +
+                "INSERT INTO policy_tombstone (id, org_id, mtime) SELECT id, org_id, :mtime FROM deleted " +
+                "ON CONFLICT (id) DO UPDATE SET mtime = EXCLUDED.mtime RETURNING id";
+        return em.createNativeQuery(sql, UUID.class)
+                .setParameter("orgId", orgId)
+                .setParameter("ids", ids)
+                .setParameter("mtime", new Timestamp(System.currentTimeMillis()))
+                .getResultList();
+    }
+
+    /**
+     * Streams the policies of all orgs which were created, updated or deleted at or after the given time,
+     * ordered by the time of the change. The policies are read from the database in batches as the stream
+     * is consumed, which needs to happen within a transaction. The deleted ones are only known for as long
+     * as their tombstones are kept.
+     */
+    @SuppressWarnings("unchecked")
+    public static Stream<PolicyChange> streamChangesSince(EntityManager em, Timestamp since) {
+        // Tombstones are pruned after a few days, there are few enough of them to be read at once
+        List<Object[]> tombstones = em.createNativeQuery("SELECT org_id, id, mtime FROM policy_tombstone WHERE mtime >= :since ORDER BY mtime")
+                .unwrap(NativeQuery.class)
+                .addScalar("org_id", String.class)
+                .addScalar("id", UUID.class)
+                .addScalar("mtime", Timestamp.class)
+                .setParameter("since", since)
+                .getResultList();
+        Stream<Policy> policies = find("mtime >= ?1", Sort.by("mtime").and("id"), since)
+                .withHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .stream();
+
+        Iterator<PolicyChange> deleted = tombstones.stream()
+                .map(row -> new PolicyChange((String) row[0], (UUID) row[1], (Timestamp) row[2], null))
+                .iterator();
+        Iterator<PolicyChange> changed = policies
+                .peek(em::detach)
+                .map(policy -> new PolicyChange(policy.orgId, policy.id, policy.mtime, policy))
+                .iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new MergingIterator<>(deleted, changed), Spliterator.ORDERED), false)
+                .onClose(policies::close);
+    }
+
+    /*
+     * Merges two iterators which are each already sorted.
+     */
+    private static class MergingIterator<T extends Comparable<T>> implements Iterator<T> {
+
+        private final Iterator<T> first;
+        private final Iterator<T> second;
+        private T nextOfFirst;
+        private T nextOfSecond;
+
+        MergingIterator(Iterator<T> first, Iterator<T> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextOfFirst != null || nextOfSecond != null || first.hasNext() || second.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (nextOfFirst == null && first.hasNext()) {
+                nextOfFirst = first.next();
+            }
+            if (nextOfSecond == null && second.hasNext()) {
+                nextOfSecond = second.next();
+            }
+            T result;
+            if (nextOfFirst != null && (nextOfSecond == null || nextOfFirst.compareTo(nextOfSecond) <= 0)) {
+                result = nextOfFirst;
+                nextOfFirst = null;
+            } else if (nextOfSecond != null) {
+                result = nextOfSecond;
+                nextOfSecond = null;
+            } else {
+                throw new NoSuchElementException();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Enables or disables the policies of the org among the given ids, all in one statement.
+     * Policies that are already in the requested state are left untouched.
+     *
+     * @return The ids of the policies whose state was actually changed
+     */
+    @SuppressWarnings("unchecked")
+    public static List<UUID> setEnabledStateForCustomer(EntityManager em, String orgId, Collection<UUID> ids, boolean enabled) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return em.createNativeQuery("UPDATE policy SET is_enabled = :enabled, mtime = :mtime, version = version + 1 " +
+                        "WHERE org_id = :orgId AND id IN (:ids) AND is_enabled <> :enabled RETURNING id", UUID.class)
+                .setParameter("enabled", enabled)
+                .setParameter("mtime", new Timestamp(System.currentTimeMillis()))
+                .setParameter("orgId", orgId)
+                .setParameter("ids", ids)
+                .getResultList();
     }
 
     public static Policy findById(String orgId, UUID theId) {
         return find("orgId = ?1 and id = ?2", orgId, theId).firstResult();
     }
 
+    /**
+     * Only reads what the ETag of a policy is made of, so that an unchanged policy doesn't need to be loaded.
+     */
+    public static Optional<PolicyVersion> findVersionById(String orgId, UUID theId) {
+        return find("orgId = ?1 and id = ?2", orgId, theId).project(PolicyVersion.class).firstResultOptional();
+    }
+
     public static Policy findByName(String orgId, String name) {
         return find("orgId = ?1 and name = ?2", orgId, name).firstResult();
     }
 
+    /**
+     * @return The names among the given ones which are already used by a policy of the org
+     */
+    public static Set<String> findNamesForCustomer(EntityManager em, String orgId, Collection<String> names) {
+        if (names.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(em.createQuery("SELECT p.name FROM Policy p WHERE p.orgId = :orgId AND p.name IN (:names)", String.class)
+                .setParameter("orgId", orgId)
+                .setParameter("names", names)
+                .getResultList());
+    }
+
     public void delete(Policy policy) {
         if (policy == null || !policy.isPersistent()) {
             throw new IllegalStateException("Policy was not persisted");
@@ -186,12 +779,121 @@ public class Policy extends PanacheEntityBase {
         policy.flush();
     }
 
+    /**
+     * Inserts the policy unless its name is already used in the org, in one statement. This relies on the
+     * policy_org_id_name_idx unique index, so that concurrent writes can't both get the same name.
+     *
+     * @return false if the name is already used
+     */
+    public static boolean insertIfNameIsUnique(EntityManager em, Policy policy) {
+        String sql = "INSERT INTO policy (id, customerid, org_id, name, description, is_enabled, conditions, actions, mtime, ctime, version) " +
+                "VALUES (:id, CAST(:customerid AS varchar), :orgId, :name, CAST(:description AS varchar), :isEnabled, :conditions, " +
+                "CAST(:actions AS varchar), :mtime, :ctime, :version) " +
+                "ON CONFLICT (org_id, name) DO NOTHING";
+        int inserted = em.createNativeQuery(sql)
+                .setParameter("id", policy.id)
+                .setParameter("customerid", policy.customerid)
+                .setParameter("orgId", policy.orgId)
+                .setParameter("name", policy.name)
+                .setParameter("description", policy.description)
+                .setParameter("isEnabled", policy.isEnabled)
+                .setParameter("conditions", policy.conditions)
+                .setParameter("actions", policy.actions)
+                .setParameter("mtime", policy.mtime)
+                .setParameter("ctime", policy.ctime)
+                .setParameter("version", policy.version)
+                .executeUpdate();
+        return inserted == 1;
+    }
+
+    /**
+     * Same as {@link #insertIfNameIsUnique(EntityManager, Policy)} for several policies, still in one statement.
+     * The policies are passed as one array per column.
+     *
+     * @return The ids of the policies which were inserted, the others have a name already used in the org
+     */
+    public static Set<UUID> insertIfNamesAreUnique(EntityManager em, List<Policy> policies) {
+        if (policies.isEmpty()) {
+            return new HashSet<>();
+        }
+        String sql = "INSERT INTO policy (id, customerid, org_id, name, description, is_enabled, conditions, actions, mtime, ctime, version) " +
+                "SELECT * FROM unnest(CAST(:ids AS uuid[]), CAST(:customerids AS varchar[]), CAST(:orgIds AS text[]), " +
+                "CAST(:names AS varchar[]), CAST(:descriptions AS varchar[]), CAST(:isEnableds AS boolean[]), " +
+                "CAST(:conditions AS varchar[]), CAST(:actions AS varchar[]), CAST(:mtimes AS timestamp[]), " +
+                "CAST(:ctimes AS timestamp[]), CAST(:versions AS bigint[])) " +
+                "ON CONFLICT (org_id, name) DO NOTHING " +
+                "RETURNING id";
+        List<?> inserted = em.createNativeQuery(sql, UUID.class)
+                .setParameter("ids", toColumn(policies, policy -> policy.id))
+                .setParameter("customerids", toColumn(policies, policy -> policy.customerid))
+                .setParameter("orgIds", toColumn(policies, policy -> policy.orgId))
+                .setParameter("names", toColumn(policies, policy -> policy.name))
+                .setParameter("descriptions", toColumn(policies, policy -> policy.description))
+                .setParameter("isEnableds", toColumn(policies, policy -> policy.isEnabled))
+                .setParameter("conditions", toColumn(policies, policy -> policy.conditions))
+                .setParameter("actions", toColumn(policies, policy -> policy.actions))
+                .setParameter("mtimes", toColumn(policies, policy -> policy.mtime))
+                .setParameter("ctimes", toColumn(policies, policy -> policy.ctime))
+                .setParameter("versions", toColumn(policies, policy -> policy.version))
+                .getResultList();
+        return inserted.stream().map(UUID.class::cast).collect(Collectors.toSet());
+    }
+
+    // The values as text, which the statement casts back to the type of the column
+    private static String[] toColumn(List<Policy> policies, Function<Policy, Object> getter) {
+        return policies.stream()
+                .map(getter)
+                .map(value -> value == null ? null : value.toString())
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Updates the user editable fields of a policy from the given one, in one statement. The policy is not
+     * updated if another policy of the org already has the new name.
+     *
+     * @return The updated policy, nothing if the policy does not exist or if the name is already used
+     */
+    public static Optional<Policy> updateIfNameIsUnique(EntityManager em, String orgId, UUID id, Policy policy) {
+        String sql = "UPDATE policy SET name = :name, description = CAST(:description AS varchar), is_enabled = :isEnabled, " +
+                "conditions = :conditions, actions = CAST(:actions AS varchar), mtime = :mtime, version = version + 1 " +
+                "WHERE org_id = :orgId AND id = :id " +
+                "AND NOT EXISTS (SELECT 1 FROM policy other WHERE other.org_id = :orgId AND other.name = :name AND other.id <> :id) " +
+                "RETURNING *";
+        List<?> updated = em.createNativeQuery(sql, Policy.class)
+                .setParameter("name", policy.name)
+                .setParameter("description", policy.description)
+                .setParameter("isEnabled", policy.isEnabled)
+                .setParameter("conditions", policy.conditions)
+                .setParameter("actions", policy.actions)
+                .setParameter("mtime", new Timestamp(System.currentTimeMillis()))
+                .setParameter("orgId", orgId)
+                .setParameter("id", id)
+                .getResultList();
+        return updated.stream().map(Policy.class::cast).findFirst();
+    }
+
     public void populateFrom(Policy policy) {
         this.name = policy.name;
         this.description = policy.description;
         this.actions = policy.actions;
         this.conditions = policy.conditions;
         this.isEnabled = policy.isEnabled;
+        version++;
+    }
+
+    /**
+     * Projection of what identifies the state of a policy as returned by the API. The last trigger time
+     * is updated by the database alone, so it is not covered by the version.
+     */
+    @RegisterForReflection
+    public static class PolicyVersion {
+        public final long version;
+        public final long lastTriggered;
+
+        public PolicyVersion(long version, long lastTriggered) {
+            this.version = version;
+            this.lastTriggered = lastTriggered;
+        }
     }
 
     @Override
@@ -206,12 +908,3 @@ public class Policy extends PanacheEntityBase {
         return sb.toString();
     }
 }
-
-@RegisterForReflection
-class PolicyId {
-    public final UUID id;
-
-    public PolicyId(UUID id) {
-        this.id = id;
-    }
-}
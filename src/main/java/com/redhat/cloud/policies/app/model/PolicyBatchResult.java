@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app.model;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.UUID;
+
+@Schema(description = "Outcome for one policy or condition of a batch, in the same position as in the request")
+public class PolicyBatchResult {
+
+    @Schema(description = "Status the item would have gotten if it was sent on its own")
+    public int status;
+
+    @Schema(description = "Id of the stored policy, only set when the policy was stored")
+    public UUID id;
+
+    @Schema(description = "Reason for failure, only set when the item was rejected")
+    public String msg;
+
+    protected PolicyBatchResult() {
+    }
+
+    public static PolicyBatchResult stored(UUID id) {
+        PolicyBatchResult result = new PolicyBatchResult();
+        result.status = 201;
+        result.id = id;
+        return result;
+    }
+
+    public static PolicyBatchResult validated() {
+        PolicyBatchResult result = new PolicyBatchResult();
+        result.status = 200;
+        return result;
+    }
+
+    public static PolicyBatchResult failed(int status, String msg) {
+        PolicyBatchResult result = new PolicyBatchResult();
+        result.status = status;
+        result.msg = msg;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PolicyBatchResult{");
+        sb.append("status=").append(status);
+        sb.append(", id=").append(id);
+        sb.append(", msg='").append(msg).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
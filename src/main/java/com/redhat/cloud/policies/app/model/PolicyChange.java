@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+@Schema(description = "A policy which was created, updated or deleted since a given time")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PolicyChange implements Comparable<PolicyChange> {
+
+    @Schema(description = "Org of the policy")
+    public String orgId;
+
+    @Schema(description = "Id of the policy")
+    public UUID id;
+
+    @Schema(description = "Whether the policy was deleted")
+    public boolean deleted;
+
+    @Schema(description = "The policy as it is now, only set when it was not deleted")
+    public Policy policy;
+
+    private Timestamp mtime;
+
+    PolicyChange(String orgId, UUID id, Timestamp mtime, Policy policy) {
+        this.orgId = orgId;
+        this.id = id;
+        this.mtime = mtime;
+        this.deleted = policy == null;
+        this.policy = policy;
+    }
+
+    @Schema(description = "Time of the change in a form like '2020-01-24 12:19:56.718'")
+    public String getMtime() {
+        return mtime.toString();
+    }
+
+    @Override
+    public int compareTo(PolicyChange other) {
+        return mtime.compareTo(other.mtime);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PolicyChange{");
+        sb.append("orgId='").append(orgId).append('\'');
+        sb.append(", id=").append(id);
+        sb.append(", mtime=").append(mtime);
+        sb.append(", deleted=").append(deleted);
+        sb.append('}');
+        return sb.toString();
+    }
+}
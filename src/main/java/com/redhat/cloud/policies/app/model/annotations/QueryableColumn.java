@@ -44,4 +44,10 @@ public @interface QueryableColumn {
      * Default is false.
      */
     boolean filterable() default false;
+
+    /**
+     * (Optional) Allow the column to be picked with the fields
+     * query parameter. Default is false.
+     */
+    boolean selectable() default false;
 }
@@ -0,0 +1,41 @@
+package com.redhat.cloud.policies.app.model.history;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Size of the buckets of the trigger histogram. The rollup is kept per hour, the days are summed from it.
+ */
+public enum HistogramBucket {
+
+    HOUR(Duration.ofHours(1L)),
+    DAY(Duration.ofDays(1L));
+
+    private final long millis;
+
+    HistogramBucket(Duration duration) {
+        this.millis = duration.toMillis();
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Start of the bucket which contains the given time, in UTC.
+     */
+    public long truncate(long epochMillis) {
+        return epochMillis - epochMillis % millis;
+    }
+
+    public static HistogramBucket fromString(String bucket) {
+        if (bucket == null) {
+            return HOUR;
+        }
+        try {
+            return valueOf(bucket.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown bucket [" + bucket + "], allowed values are hour and day");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.redhat.cloud.policies.app.model.history;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.Objects;
+
+@Schema(description = "Number of times a policy fired within a bucket of time")
+public class HistogramItem {
+
+    @Schema(description = "Start of the bucket (since the epoch)")
+    public long start;
+    @Schema(description = "Number of triggers within the bucket")
+    public long count;
+
+    public HistogramItem() {
+    }
+
+    public HistogramItem(long start, long count) {
+        this.start = start;
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramItem{start=" + start + ", count=" + count + '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HistogramItem that = (HistogramItem) o;
+        return start == that.start && count == that.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, count);
+    }
+}
@@ -22,6 +22,7 @@ import io.quarkiverse.hibernate.types.json.JsonTypes;
 public class PoliciesHistoryEntry {
 
     // The ID is generated by policies-engine.
+    // The primary key of the partitioned table is (id, ctime), entries are only looked up with their org and policy.
     @Id
     @QueryableColumn(filterable = true, sortable = false)
     private UUID id;
@@ -1,15 +1,14 @@
 package com.redhat.cloud.policies.app.model.history;
 
 import com.redhat.cloud.policies.app.model.filter.Filter;
+import com.redhat.cloud.policies.app.model.pager.Cursor;
+import com.redhat.cloud.policies.app.model.pager.Page;
 import com.redhat.cloud.policies.app.model.pager.Pager;
 import io.quarkus.logging.Log;
 import io.quarkus.panache.common.Sort;
 
 import org.hibernate.query.NativeQuery;
 
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
-
 import org.hibernate.Session;
 
 import jakarta.enterprise.context.ApplicationScoped;
@@ -18,6 +17,7 @@ import jakarta.persistence.Table;
 import jakarta.persistence.Query;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -30,8 +30,13 @@ public class PoliciesHistoryRepository {
     Session session;
 
     private static final String tableName = PoliciesHistoryEntry.class.getAnnotation(Table.class).name();
+    private static final UUID UNGROUPED = new UUID(0L, 0L);
 
     public long count(String orgId, List<UUID> hostGroupIds, UUID policyId, Pager pager) {
+        if (isUnfiltered(hostGroupIds, pager)) {
+            return countFromStats(orgId, policyId);
+        }
+
         // Base SQL query.
         String sql = String.format("SELECT COUNT(*) AS count FROM %s WHERE org_id = :orgId AND policy_id = :policyId",
                                    tableName);
@@ -52,7 +57,47 @@ public class PoliciesHistoryRepository {
         return (Long) query.getSingleResult();
     }
 
+    /*
+     * Without any filter, all the history entries of the policy are counted, and the policy_trigger_stats table
+     * maintained by the database has that count already.
+     */
+    private static boolean isUnfiltered(List<UUID> hostGroupIds, Pager pager) {
+        return hostGroupIds == null && pager.getFilter().getItems().isEmpty();
+    }
+
+    private long countFromStats(String orgId, UUID policyId) {
+        List<?> counts = session.createNativeQuery("SELECT trigger_count FROM policy_trigger_stats WHERE org_id = :orgId AND policy_id = :policyId")
+                .addScalar("trigger_count", Long.class)
+                .setParameter("orgId", orgId)
+                .setParameter("policyId", policyId.toString())
+                .getResultList();
+        return counts.isEmpty() ? 0L : (Long) counts.get(0);
+    }
+
     public List<PoliciesHistoryEntry> find(String orgId,  List<UUID> hostGroupIds, UUID policyId, Pager pager) {
+        String sql = getFindSql(hostGroupIds, pager);
+
+        Log.tracef("SQL query ready to be executed: %s", sql);
+
+        NativeQuery<PoliciesHistoryEntry> query = session
+                .createNativeQuery(sql, PoliciesHistoryEntry.class)
+                .setParameter("orgId", orgId)
+                .setParameter("policyId", policyId.toString());
+
+        setHostGroupsValues(query, hostGroupIds);
+        setFiltersValues(query, pager.getFilter().getItems());
+
+        if (pager.getLimit() > 0) {
+            query.setMaxResults(pager.getLimit());
+        }
+        if (pager.getOffset() > 0) {
+            query.setFirstResult(pager.getOffset());
+        }
+
+        return query.getResultList();
+    }
+
+    static String getFindSql(List<UUID> hostGroupIds, Pager pager) {
         // Base SQL query.
         String sql = String.format("SELECT * FROM %s WHERE org_id = :orgId AND policy_id = :policyId",
                                    tableName);
@@ -60,26 +105,32 @@ public class PoliciesHistoryRepository {
         sql = addHostGroupsConditions(sql, hostGroupIds);
         sql = addFiltersConditions(sql, pager.getFilter().getItems());
 
-        // The sorts from the pager are added to the HQL query.
-        if (!pager.getSort().getColumns().isEmpty()) {
-            List<String> orderByItems = new ArrayList<>();
-            for (Sort.Column column : pager.getSort().getColumns()) {
-                getSortFieldName(column.getName()).ifPresent(entityFieldName -> {
-                    String sortDirection = getSortDirection(column.getDirection());
-                    orderByItems.add(entityFieldName + " " + sortDirection);
-                });
-            }
-            if (!orderByItems.isEmpty()) {
-                sql += " ORDER BY " + String.join(", ", orderByItems);
-            }
-        } else {
-            sql += " ORDER BY ctime DESC, host_name ASC";
+        return sql + getOrderBy(pager);
+    }
+
+    /**
+     * Same as calling {@link #count} and then {@link #find}, but in a single statement: the total count is
+     * computed by a {@code COUNT(*) OVER ()} window over the filtered rows and returned along with each row of the
+     * requested page.
+     */
+    public Page<PoliciesHistoryEntry> findWithCount(String orgId, List<UUID> hostGroupIds, UUID policyId, Pager pager) {
+        if (isUnfiltered(hostGroupIds, pager)) {
+            return new Page<>(find(orgId, null, policyId, pager), pager, countFromStats(orgId, policyId));
         }
 
+        // Base SQL query.
+        String sql = String.format("SELECT *, COUNT(*) OVER () AS total_count FROM %s WHERE org_id = :orgId AND policy_id = :policyId",
+                                   tableName);
+
+        sql = addHostGroupsConditions(sql, hostGroupIds);
+        sql = addFiltersConditions(sql, pager.getFilter().getItems());
+        sql += getOrderBy(pager);
+
         Log.tracef("SQL query ready to be executed: %s", sql);
 
-        NativeQuery<PoliciesHistoryEntry> query = session
-                .createNativeQuery(sql, PoliciesHistoryEntry.class)
+        NativeQuery<?> query = session.createNativeQuery(sql)
+                .addEntity(PoliciesHistoryEntry.class)
+                .addScalar("total_count", Long.class)
                 .setParameter("orgId", orgId)
                 .setParameter("policyId", policyId.toString());
 
@@ -93,7 +144,169 @@ public class PoliciesHistoryRepository {
             query.setFirstResult(pager.getOffset());
         }
 
-        return query.getResultList();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = (List<Object[]>) query.getResultList();
+
+        if (rows.isEmpty()) {
+            // Counted separately, as in Policy#pageWithWindowCount
+            long totalCount = pager.getOffset() > 0 ? count(orgId, hostGroupIds, policyId, pager) : 0;
+            return new Page<>(List.of(), pager, totalCount);
+        }
+
+        List<PoliciesHistoryEntry> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            entries.add((PoliciesHistoryEntry) row[0]);
+        }
+        return new Page<>(entries, pager, (Long) rows.get(0)[1]);
+    }
+
+    /**
+     * Keyset variant of {@link #findWithCount}. Instead of skipping OFFSET rows, the page seeks past the
+     * (ctime, id) of the last entry of the previous page. Only the columns of the trigger history are read,
+     * so that the ix_policies_history_org_id_policy_id_ctime covering index serves the page on its own.
+     */
+    public Page<PoliciesHistoryEntry> seek(String orgId, List<UUID> hostGroupIds, UUID policyId, Pager pager) {
+        Sort.Direction direction = getKeysetDirection(pager);
+
+        // Base SQL query.
+        String sql = String.format("SELECT id, ctime, host_id, host_name FROM %s WHERE org_id = :orgId AND policy_id = :policyId",
+                                   tableName);
+
+        sql = addHostGroupsConditions(sql, hostGroupIds);
+        sql = addFiltersConditions(sql, pager.getFilter().getItems());
+
+        // The id goes the other way round than the ctime, the (ctime DESC, id) index then serves both directions.
+        String ctimeComparator = direction == Sort.Direction.Ascending ? ">" : "<";
+        String idComparator = direction == Sort.Direction.Ascending ? "<" : ">";
+        Cursor cursor = pager.getCursor();
+        if (cursor != null) {
+            // With the redundant bound of the policies seek, see Policy.Seek
+            sql += String.format(" AND ctime %s= :cursorCtime AND (ctime %s :cursorCtime OR (ctime = :cursorCtime AND id %s :cursorId))",
+                                 ctimeComparator, ctimeComparator, idComparator);
+        }
+        sql += direction == Sort.Direction.Ascending ? " ORDER BY ctime ASC, id DESC" : " ORDER BY ctime DESC, id ASC";
+
+        Log.tracef("SQL query ready to be executed: %s", sql);
+
+        NativeQuery<?> query = session.createNativeQuery(sql)
+                .addScalar("id", UUID.class)
+                .addScalar("ctime", Long.class)
+                .addScalar("host_id", String.class)
+                .addScalar("host_name", String.class)
+                .setParameter("orgId", orgId)
+                .setParameter("policyId", policyId.toString());
+
+        setHostGroupsValues(query, hostGroupIds);
+        setFiltersValues(query, pager.getFilter().getItems());
+
+        if (cursor != null) {
+            try {
+                query.setParameter("cursorCtime", Long.parseLong(cursor.getValue()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor value for column [ctime]", e);
+            }
+            query.setParameter("cursorId", cursor.getId());
+        }
+        if (pager.getLimit() > 0) {
+            // One more row than requested tells whether there is a next page
+            query.setMaxResults(pager.getLimit() + 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = (List<Object[]>) query.getResultList();
+
+        List<PoliciesHistoryEntry> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            PoliciesHistoryEntry entry = new PoliciesHistoryEntry();
+            entry.setId((UUID) row[0]);
+            entry.setCtime((Long) row[1]);
+            entry.setHostId((String) row[2]);
+            entry.setHostName((String) row[3]);
+            entries.add(entry);
+        }
+
+        Cursor nextCursor = null;
+        if (pager.getLimit() > 0 && entries.size() > pager.getLimit()) {
+            entries = new ArrayList<>(entries.subList(0, pager.getLimit()));
+            PoliciesHistoryEntry last = entries.get(entries.size() - 1);
+            nextCursor = new Cursor("ctime", direction, last.getId(), Long.toString(last.getCtime()));
+        }
+
+        long totalCount = pager.getCountMode() == Pager.CountMode.NONE
+                ? Page.UNKNOWN_COUNT
+                : count(orgId, hostGroupIds, policyId, pager);
+        return new Page<>(entries, pager, totalCount, nextCursor);
+    }
+
+    /**
+     * Number of triggers of the policy per bucket since the given time, oldest first. The buckets without any
+     * trigger are left out. This reads the hourly counts maintained in policy_trigger_rollup instead of the history,
+     * the host groups restriction applies to the host groups each count was kept for.
+     */
+    public List<HistogramItem> histogram(String orgId, List<UUID> hostGroupIds, UUID policyId, HistogramBucket bucket, long since) {
+        String sql = "SELECT bucket_start - bucket_start % :bucketMillis AS start, SUM(trigger_count) AS count " +
+                "FROM policy_trigger_rollup WHERE org_id = :orgId AND policy_id = :policyId AND bucket_start >= :since";
+        if (hostGroupIds != null) {
+            sql += " AND host_group_ids && CAST(:hostGroupIds AS uuid[])";
+        }
+        sql += " GROUP BY 1 ORDER BY 1";
+
+        Log.tracef("SQL query ready to be executed: %s", sql);
+
+        NativeQuery<?> query = session.createNativeQuery(sql)
+                .addScalar("start", Long.class)
+                .addScalar("count", Long.class)
+                .setParameter("bucketMillis", bucket.getMillis())
+                .setParameter("orgId", orgId)
+                .setParameter("policyId", policyId.toString())
+                .setParameter("since", bucket.truncate(since));
+
+        setHostGroupsValues(query, hostGroupIds);
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = (List<Object[]>) query.getResultList();
+
+        List<HistogramItem> items = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            items.add(new HistogramItem((Long) row[0], (Long) row[1]));
+        }
+        return items;
+    }
+
+    private static Sort.Direction getKeysetDirection(Pager pager) {
+        if (pager.getSort().getColumns().isEmpty()) {
+            return Sort.Direction.Descending;
+        }
+        Sort.Column column = pager.getSort().getColumns().get(0);
+        switch (column.getName()) {
+            case "ctime":
+            case "mtime":
+                // Pager defaults to `mtime`, which stands for the ctime of the entries here.
+                return column.getDirection();
+            default:
+                throw new IllegalArgumentException("Column [" + column.getName() + "] can not be used with cursor paging");
+        }
+    }
+
+    private static String getOrderBy(Pager pager) {
+        // The sorts from the pager are added to the SQL query.
+        if (!pager.getSort().getColumns().isEmpty()) {
+            List<String> orderByItems = new ArrayList<>();
+            for (Sort.Column column : pager.getSort().getColumns()) {
+                getSortFieldName(column.getName()).ifPresent(entityFieldName -> {
+                    String sortDirection = getSortDirection(column.getDirection());
+                    orderByItems.add(entityFieldName + " " + sortDirection);
+                });
+            }
+            if (orderByItems.isEmpty()) {
+                return "";
+            }
+            // The id makes the order of equal rows, and therefore the content of each page, deterministic.
+            orderByItems.add("id");
+            return " ORDER BY " + String.join(", ", orderByItems);
+        } else {
+            return " ORDER BY ctime DESC, host_name ASC, id";
+        }
     }
 
     private static String addHostGroupsConditions(String sql, List<UUID> hostGroupIds) {
@@ -101,18 +314,8 @@ public class PoliciesHistoryRepository {
             return sql;
         }
 
-        List<String> conds = new ArrayList<String>();
-        conds.add("1=0");
-        int num = 0;
-        for (UUID hostGroupId : hostGroupIds) {
-            if (hostGroupId == null) {
-                conds.add("host_groups = '[]'");
-            } else {
-                num++;
-                conds.add(String.format("host_groups @> CAST(:hostGroup%d AS jsonb)", num));
-            }
-        }
-        return String.format("%s AND (%s)", sql, String.join(" OR ", conds));
+        // A single predicate, whatever the number of groups, which policies_history_host_groups_idx serves.
+        return sql + " AND policies_history_host_group_ids(host_groups) && CAST(:hostGroupIds AS uuid[])";
     }
 
     private static void setHostGroupsValues(Query query, List<UUID> hostGroupIds) {
@@ -120,14 +323,13 @@ public class PoliciesHistoryRepository {
             return;
         }
 
-        int num = 0;
-        for (UUID hostGroupId : hostGroupIds) {
-            if (hostGroupId != null) {
-                num++;
-                JsonArray value = JsonArray.of(JsonObject.of("id", hostGroupId.toString()));
-                query.setParameter(String.format("hostGroup%d", num), value.toString());
-            }
-        }
+        // The entries of hosts in no group carry the nil UUID, see V30__policies_history_host_group_ids.sql
+        String[] values = hostGroupIds.stream()
+                .map(hostGroupId -> hostGroupId == null ? UNGROUPED : hostGroupId)
+                .map(UUID::toString)
+                .distinct()
+                .toArray(String[]::new);
+        query.setParameter("hostGroupIds", values);
     }
 
     private static String addFiltersConditions(String sql, List<Filter.FilterItem> filterItems) {
@@ -136,15 +338,16 @@ public class PoliciesHistoryRepository {
             String fieldName = getFieldName(filterItem);
             String operator = getOperator(filterItem);
             // To be consistent with the previous implementation, the condition is always case-insensitive.
+            // LOWER(column) is also what the trigram indexes of V31 are built on, keep both in sync.
             sql += " AND LOWER(" + fieldName + ")" + operator + ":" + fieldName;
         }
         return sql;
     }
 
-    private static void setFiltersValues(Query query, List<Filter.FilterItem> filterItems) {
+    static void setFiltersValues(Query query, List<Filter.FilterItem> filterItems) {
         for (Filter.FilterItem filterItem : filterItems) {
             String paramName = getFieldName(filterItem);
-            String paramValue = filterItem.value.toString().toLowerCase();
+            String paramValue = filterItem.value.toString().toLowerCase(Locale.ROOT);
             if (filterItem.operator == LIKE) {
                 paramValue = "%" + paramValue + "%";
             }
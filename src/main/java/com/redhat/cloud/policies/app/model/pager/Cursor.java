@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app.model.pager;
+
+import io.quarkus.panache.common.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Position of a keyset (seek) page. It holds the (sort column, id) tuple
+ * of the last item of the previous page, so that the next page can be
+ * fetched with {@code WHERE (column, id) > (:value, :id)} instead of an OFFSET.
+ * Clients only ever see the opaque {@link #encode() encoded} form.
+ */
+public class Cursor {
+
+    private static final String SEPARATOR = "\n";
+
+    private final String column;
+    private final Sort.Direction direction;
+    private final UUID id;
+    private final String value;
+
+    public Cursor(String column, Sort.Direction direction, UUID id, String value) {
+        this.column = column;
+        this.direction = direction;
+        this.id = id;
+        this.value = value;
+    }
+
+    /**
+     * @return The entity field name the page is sorted by
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public Sort.Direction getDirection() {
+        return direction;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * @return The value of the sort column of the last item, in its string form
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public String encode() {
+        String raw = String.join(SEPARATOR, column, direction.name(), id.toString(), value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Cursor decode(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            // The value goes last, so that it may contain the separator itself
+            String[] parts = raw.split(SEPARATOR, 4);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Invalid cursor: [" + encoded + "]");
+            }
+            return new Cursor(parts[0], Sort.Direction.valueOf(parts[1]), UUID.fromString(parts[2]), parts[3]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: [" + encoded + "]", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Cursor cursor = (Cursor) o;
+        return column.equals(cursor.column) && direction == cursor.direction && id.equals(cursor.id) && value.equals(cursor.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(column, direction, id, value);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
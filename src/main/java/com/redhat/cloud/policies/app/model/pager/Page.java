@@ -27,24 +27,59 @@ public class Page<T> implements List<T> {
     public static final String C_REMOVE = "remove";
     public static final String C_ADD_ALL = "addAll";
     public static final String C_ADD = "add";
+    public static final long UNKNOWN_COUNT = -1;
     private final List<T> wrapped;
     private final Pager pager;
     private final long totalCount;
+    private final Cursor nextCursor;
+    private final boolean hasNext;
 
     public Page(List<T> wrapped, Pager pager, long totalCount) {
+        this(wrapped, pager, totalCount, null);
+    }
+
+    public Page(List<T> wrapped, Pager pager, long totalCount, Cursor nextCursor) {
+        this(wrapped, pager, totalCount, nextCursor, pager.isKeyset() ? nextCursor != null
+                : pager.getLimit() != Pager.NO_LIMIT && pager.getOffset() < totalCount - pager.getLimit());
+    }
+
+    /**
+     * Page without a known total count. Whether more items follow has to be told explicitly.
+     */
+    public Page(List<T> wrapped, Pager pager, boolean hasNext) {
+        this(wrapped, pager, UNKNOWN_COUNT, null, hasNext);
+    }
+
+    private Page(List<T> wrapped, Pager pager, long totalCount, Cursor nextCursor, boolean hasNext) {
         this.wrapped = wrapped;
         this.pager = pager;
         this.totalCount = totalCount;
+        this.nextCursor = nextCursor;
+        this.hasNext = hasNext;
     }
 
     public Pager getPager() {
         return pager;
     }
 
+    /**
+     * @return The total number of items, or {@link #UNKNOWN_COUNT} if it was not counted
+     */
     public long getTotalCount() {
         return totalCount;
     }
 
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return Position of the next keyset page, or null if this is the last one
+     */
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
     @Override
     public int size() {
         return wrapped.size();
@@ -176,7 +211,20 @@ public class Page<T> implements List<T> {
     @Override
     @NotNull
     public List<T> subList(int i, int j) {
-        return new Page<>(wrapped.subList(i, j), pager, totalCount);
+        return new Page<>(wrapped.subList(i, j), pager, totalCount, nextCursor, hasNext);
+    }
+
+    /**
+     * Follows the {@link List#equals(Object)} contract: only the items are compared.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o == this || wrapped.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return wrapped.hashCode();
     }
 
     class WrapperListIterator<T> implements ListIterator<T> {
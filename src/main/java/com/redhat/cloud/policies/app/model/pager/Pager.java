@@ -20,6 +20,12 @@ import com.redhat.cloud.policies.app.model.filter.Filter;
 import io.quarkus.panache.common.Sort;
 import io.smallrye.common.constraint.Nullable;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.TreeMap;
+
 public class Pager {
 
     public static final int NO_LIMIT = -1;
@@ -29,12 +35,26 @@ public class Pager {
     @Nullable
     private final Sort sort;
     private final Filter filter;
+    private final boolean keyset;
+    @Nullable
+    private final Cursor cursor;
+    private final CountMode countMode;
+    private final List<String> fields;
 
     public Pager(int offset, int limit, Filter filter, Sort sort) {
+        this(offset, limit, filter, sort, false, null, CountMode.EXACT, List.of());
+    }
+
+    public Pager(int offset, int limit, Filter filter, Sort sort, boolean keyset, Cursor cursor, CountMode countMode,
+                 List<String> fields) {
         this.offset = offset;
         this.limit = limit;
         this.filter = filter;
         this.sort = sort;
+        this.keyset = keyset;
+        this.cursor = cursor;
+        this.countMode = countMode;
+        this.fields = List.copyOf(fields);
     }
 
     public int getOffset() {
@@ -53,6 +73,52 @@ public class Pager {
         return sort;
     }
 
+    /**
+     * @return true if the client asked for keyset (cursor) paging instead of offset paging
+     */
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    /**
+     * @return The position to seek after, or null for the first page
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * @return The entity fields the client asked for, or an empty list for the whole entity
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return A string which two pagers share if, and only if, they select the same items in the same way
+     */
+    public String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(offset).append('|').append(limit).append('|').append(countMode).append('|');
+        if (keyset) {
+            fingerprint.append("cursor=").append(cursor == null ? "" : cursor.encode());
+        }
+        fingerprint.append('|');
+        if (sort != null) {
+            for (Sort.Column column : sort.getColumns()) {
+                fingerprint.append(column.getName()).append(' ').append(column.getDirection()).append(',');
+            }
+        }
+        fingerprint.append('|').append(filter.getQuery());
+        fingerprint.append('|').append(new TreeMap<>(filter.getParameters().map()));
+        fingerprint.append('|').append(String.join(",", fields));
+        return fingerprint.toString();
+    }
+
     public static PagerBuilder builder() {
         return new PagerBuilder();
     }
@@ -63,12 +129,18 @@ public class Pager {
         private int limit;
         private final Sort sort;
         private final Filter filter;
+        private boolean keyset;
+        private Cursor cursor;
+        private CountMode countMode;
+        private List<String> fields;
 
         private PagerBuilder() {
             this.offset = 0;
             this.limit = 50;
             this.sort = Sort.by();
             this.filter = new Filter();
+            this.countMode = CountMode.EXACT;
+            this.fields = List.of();
         }
 
         public PagerBuilder page(int offset) {
@@ -86,6 +158,22 @@ public class Pager {
             return this;
         }
 
+        public PagerBuilder keyset(Cursor cursor) {
+            this.keyset = true;
+            this.cursor = cursor;
+            return this;
+        }
+
+        public PagerBuilder count(CountMode countMode) {
+            this.countMode = countMode;
+            return this;
+        }
+
+        public PagerBuilder fields(List<String> fields) {
+            this.fields = fields;
+            return this;
+        }
+
         public PagerBuilder filter(String column, Filter.Operator operator, String value) {
             Object transformedValue = value;
             if (operator.equals(Filter.Operator.BOOLEAN_IS)) {
@@ -99,9 +187,32 @@ public class Pager {
 
         public Pager build() {
             Filter filter = new Filter(this.filter);
-            return new Pager(this.offset, this.limit, filter, this.sort);
+            return new Pager(this.offset, this.limit, filter, this.sort, this.keyset, this.cursor, this.countMode, this.fields);
         }
 
     }
 
+    /**
+     * How the total number of items is determined for a page.
+     */
+    public enum CountMode {
+        /** Run a COUNT over all matching rows. */
+        EXACT,
+        /** Use the row estimate of the query planner, which is cheap but may be off. */
+        ESTIMATE,
+        /** Do not count at all. Only tell whether there is a next page. */
+        NONE;
+
+        public static CountMode fromName(String name) {
+            final String upperCaseName = name.toUpperCase(Locale.ROOT);
+            Optional<CountMode> result = Arrays.stream(CountMode.values())
+                    .filter(val -> val.name().equals(upperCaseName))
+                    .findAny();
+            if (result.isPresent()) {
+                return result.get();
+            }
+            throw new IllegalArgumentException("Unknown count mode requested: [" + name + "]");
+        }
+    }
+
 }
@@ -16,10 +16,12 @@
  */
 package com.redhat.cloud.policies.app.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.redhat.cloud.policies.app.StuffHolder;
 import com.redhat.cloud.policies.app.health.ScheduledStatusProducer;
 import com.redhat.cloud.policies.app.model.Msg;
 import com.redhat.cloud.policies.app.model.Policy;
+import com.redhat.cloud.policies.app.model.PolicyChange;
 import jakarta.annotation.PostConstruct;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
@@ -32,14 +34,24 @@ import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 @Path("/admin")
 @Produces("application/json")
@@ -53,9 +65,16 @@ public class AdminService {
     @Inject
     ScheduledStatusProducer statusProducer;
 
+    @Inject
+    ObjectMapper objectMapper;
+
     @ConfigProperty(name = "stats.filter.cid")
     Optional<String> filterIdsString;
 
+    // Longest expected time between the mtime of a change and the commit of its transaction
+    @ConfigProperty(name = "policies.changes.overlap", defaultValue = "1M")
+    Duration changesOverlap;
+
     Set<String> filterIds = new HashSet<>();
 
     private static final String[] BUCKETS = {"1", "2", "3", "4", "5-10", "10+"};
@@ -151,6 +170,49 @@ public class AdminService {
         return Response.ok().entity(result).build();
     }
 
+    /**
+     * Policies of all orgs which were created, updated or deleted since the given time, as one JSON object
+     * per line ordered by the time of the change. This allows the engine to resync from the time of the last
+     * change it got instead of reloading all the policies.
+     * <p>
+     * The time of a change is its mtime, which is set before its transaction commits. A transaction which
+     * commits late can make a change visible after changes with a later mtime were already streamed. The
+     * changes are therefore read again from {@code policies.changes.overlap} before the given time: every
+     * change whose transaction committed within that overlap after its mtime is reported, possibly more than
+     * once. Each change carries the whole policy or its deletion, applying it again is harmless.
+     */
+    @Path("/policies/changes")
+    @GET
+    @Produces({PolicyCrudService.APPLICATION_NDJSON, MediaType.APPLICATION_JSON})
+    public Response getPolicyChanges(@QueryParam("since") String since) {
+
+        Timestamp sinceTime;
+        try {
+            if (since == null) {
+                throw new IllegalArgumentException("Parameter since is required");
+            }
+            sinceTime = Timestamp.valueOf(since);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new Msg("Parameter since must be a time like '2020-01-24 12:19:56.718'"))
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .build();
+        }
+
+        StreamingOutput output = PolicyCrudService.inTransaction(outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            Timestamp readFrom = new Timestamp(sinceTime.getTime() - changesOverlap.toMillis());
+            try (Stream<PolicyChange> changes = Policy.streamChangesSince(entityManager, readFrom)) {
+                for (Iterator<PolicyChange> iterator = changes.iterator(); iterator.hasNext(); ) {
+                    writer.write(objectMapper.writeValueAsString(iterator.next()));
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+        });
+        return Response.ok(output, PolicyCrudService.APPLICATION_NDJSON).build();
+    }
+
     private Map<String, Integer> populateBuckets() {
         Map<String, Integer> map = new HashMap<>();
         Arrays.stream(BUCKETS).sequential().forEach(b -> map.put(b, 0));
@@ -18,14 +18,17 @@ package com.redhat.cloud.policies.app.rest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redhat.cloud.policies.app.lightweight.ConditionValidator;
 import com.redhat.cloud.policies.app.lightweight.OrgIdLatestUpdateRepository;
-import com.redhat.cloud.policies.app.lightweight.LightweightEngine;
 import com.redhat.cloud.policies.app.auth.RhIdPrincipal;
 import com.redhat.cloud.policies.app.model.ColumnGetter;
 import com.redhat.cloud.policies.app.model.Msg;
 import com.redhat.cloud.policies.app.model.Policy;
+import com.redhat.cloud.policies.app.model.PolicyBatchResult;
 import com.redhat.cloud.policies.app.model.UUIDHelperBean;
 import com.redhat.cloud.policies.app.model.engine.HistoryItem;
+import com.redhat.cloud.policies.app.model.history.HistogramBucket;
+import com.redhat.cloud.policies.app.model.history.HistogramItem;
 import com.redhat.cloud.policies.app.model.history.PoliciesHistoryEntry;
 import com.redhat.cloud.policies.app.model.history.PoliciesHistoryRepository;
 import com.redhat.cloud.policies.app.model.pager.Page;
@@ -33,6 +36,11 @@ import com.redhat.cloud.policies.app.model.pager.Pager;
 import com.redhat.cloud.policies.app.rest.utils.PagingUtils;
 import io.micrometer.core.annotation.Timed;
 import io.quarkus.logging.Log;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.smallrye.mutiny.TimeoutException;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import org.eclipse.microprofile.faulttolerance.exceptions.FaultToleranceException;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
@@ -44,21 +52,19 @@ import org.eclipse.microprofile.openapi.annotations.parameters.Parameters;
 import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
 import org.hibernate.exception.ConstraintViolationException;
 
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceException;
-import jakarta.transaction.SystemException;
-import jakarta.transaction.TransactionManager;
 import jakarta.transaction.Transactional;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
 import jakarta.validation.Validator;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
@@ -71,18 +77,35 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.ResponseBuilder;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriBuilder;
 import jakarta.ws.rs.core.UriInfo;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.ConnectException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Path("/api/policies/v1.0/policies")
 @Produces("application/json")
@@ -95,12 +118,20 @@ public class PolicyCrudService {
     public static final String MISSING_PERMISSIONS_TO_VERIFY_POLICY = "Missing permissions to verify policy";
     public static final String MISSING_PERMISSIONS_TO_UPDATE_POLICY = "Missing permissions to update policy";
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final String NAME_UNIQUE_INDEX = "policy_org_id_name_idx";
+
+    // Same as the retention of the policies history
+    private static final Duration HISTOGRAM_RANGE = Duration.ofDays(14L);
+
     public static final String ERROR_STRING = "error";
     public static final String CTIME_STRING = "ctime";
 
     @Inject
-    @RestClient
-    LightweightEngine lightweightEngine;
+    ConditionValidator conditionValidator;
 
     @Inject
     OrgIdLatestUpdateRepository orgIdLatestUpdateRepository;
@@ -108,6 +139,12 @@ public class PolicyCrudService {
     @Context
     UriInfo uriInfo;
 
+    @Context
+    Request request;
+
+    @Context
+    HttpHeaders httpHeaders;
+
     @SuppressWarnings("CdiInjectionPointsInspection")
     @Inject
     RhIdPrincipal user;
@@ -115,9 +152,6 @@ public class PolicyCrudService {
     @Inject
     EntityManager entityManager;
 
-    @Inject
-    TransactionManager transactionManager;
-
     @Inject
     UUIDHelperBean uuidHelper;
 
@@ -154,6 +188,35 @@ public class PolicyCrudService {
                     description = "Number of items per page, if not specified uses 50. " + Pager.NO_LIMIT + " can be used to specify an unlimited page, when specified it ignores the offset",
                     schema = @Schema(type = SchemaType.INTEGER)
             ),
+            @Parameter(
+                    name = "cursor",
+                    in = ParameterIn.QUERY,
+                    description = "Switches to cursor paging, which ignores the offset. Pass an empty value for the first page, " +
+                            "then the cursor found in the 'next' link. Sorting by description is not supported in this mode.",
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "count",
+                    in = ParameterIn.QUERY,
+                    description = "How the total number of policies is determined. 'estimate' uses the database statistics " +
+                            "instead of counting, 'none' skips counting and only provides the 'next' and 'prev' links.",
+                    schema = @Schema(
+                            type = SchemaType.STRING,
+                            enumeration = {
+                                    "exact",
+                                    "estimate",
+                                    "none"
+                            },
+                            defaultValue = "exact"
+                    )
+            ),
+            @Parameter(
+                    name = "fields",
+                    in = ParameterIn.QUERY,
+                    description = "Comma separated list of the policy properties to return, all of them if not specified.",
+                    schema = @Schema(type = SchemaType.STRING),
+                    example = "id,name,isEnabled,mtime,lastTriggered"
+            ),
             @Parameter(
                     name = "sortColumn",
                     in = ParameterIn.QUERY,
@@ -236,23 +299,105 @@ public class PolicyCrudService {
     @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action")
     @APIResponse(responseCode = "200", description = "Policies found", content =
     @Content(schema = @Schema(implementation = PagedResponseOfPolicy.class)),
-            headers = @Header(name = "TotalCount", description = "Total number of items found",
-                    schema = @Schema(type = SchemaType.INTEGER)))
+            headers = {
+                    @Header(name = "TotalCount", description = "Total number of items found, not present with count=none",
+                            schema = @Schema(type = SchemaType.INTEGER)),
+                    @Header(name = "ETag", description = "Version of the list",
+                            schema = @Schema(type = SchemaType.STRING))
+            })
+    @APIResponse(responseCode = "304", description = "The list didn't change since the request with the ETag in If-None-Match")
     public Response getPoliciesForCustomer() {
 
         if (!user.canReadPolicies()) {
             return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_RETRIEVE_POLICIES)).build();
         }
 
-        Page<Policy> page;
+        Page<?> page;
+        EntityTag etag;
         try {
             Pager pager = PagingUtils.extractPager(uriInfo, new ColumnGetter(Policy.class));
-            page = Policy.pagePoliciesForCustomer(entityManager, user.getOrgId(), pager);
+            etag = getPoliciesEtag(pager);
+            // A client polling for an unchanged list is answered without running the policy query
+            if (httpHeaders.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null) {
+                ResponseBuilder notModified = request.evaluatePreconditions(etag);
+                if (notModified != null) {
+                    return notModified.build();
+                }
+            }
+            if (pager.getLimit() == Pager.NO_LIMIT && !pager.isKeyset()) {
+                return streamPolicies(pager, etag);
+            }
+            if (pager.getFields().isEmpty()) {
+                page = Policy.pagePoliciesForCustomer(entityManager, user.getOrgId(), pager);
+            } else {
+                page = Policy.pagePolicyFieldsForCustomer(entityManager, user.getOrgId(), pager);
+            }
         } catch (IllegalArgumentException iae) {
             return Response.status(400, iae.getLocalizedMessage()).build();
         }
 
-        return PagingUtils.responseBuilder(page).build();
+        return PagingUtils.responseBuilder(page, etag).build();
+    }
+
+    /*
+     * Unlimited listings are written out while the policies are read from the database, so that
+     * the memory used doesn't grow with the number of policies of the org.
+     */
+    private Response streamPolicies(Pager pager, EntityTag etag) {
+        String orgId = user.getOrgId();
+        long totalCount = Policy.countPoliciesForCustomer(entityManager, orgId, pager);
+        boolean empty = pager.getCountMode() == Pager.CountMode.EXACT
+                ? totalCount == 0
+                : !Policy.hasPoliciesForCustomer(orgId, pager);
+        if (empty) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        StreamingOutput output = inTransaction(outputStream -> {
+            if (pager.getFields().isEmpty()) {
+                try (Stream<Policy> policies = Policy.streamPoliciesForCustomer(orgId, pager)) {
+                    // Detached, the written policies don't pile up in the persistence context
+                    PagingUtils.writePagedResponse(objectMapper, outputStream, new Page<>(List.of(), pager, totalCount),
+                            policies, entityManager::detach);
+                }
+            } else {
+                try (Stream<Map<String, Object>> policies = Policy.streamPolicyFieldsForCustomer(entityManager, orgId, pager)) {
+                    PagingUtils.writePagedResponse(objectMapper, outputStream, new Page<>(List.of(), pager, totalCount),
+                            policies, policy -> { });
+                }
+            }
+        });
+
+        ResponseBuilder builder = Response.ok(output, MediaType.APPLICATION_JSON_TYPE).header("ETag", etag);
+        if (totalCount != Page.UNKNOWN_COUNT) {
+            builder.header("TotalCount", Long.toString(totalCount));
+        }
+        return builder.build();
+    }
+
+    /*
+     * The driver only fetches the rows of a query in batches, instead of all at once, within a transaction.
+     */
+    static StreamingOutput inTransaction(StreamingOutput streamingOutput) {
+        return outputStream -> {
+            try {
+                QuarkusTransaction.requiringNew().run(() -> {
+                    try {
+                        streamingOutput.write(outputStream);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private EntityTag getPoliciesEtag(Pager pager) {
+        String policiesVersion = orgIdLatestUpdateRepository.getPoliciesVersion(user.getOrgId());
+        String tag = policiesVersion + "|" + pager.fingerprint();
+        return new EntityTag(UUID.nameUUIDFromBytes(tag.getBytes(StandardCharsets.UTF_8)).toString());
     }
 
     @Operation(summary = "Return all policy ids for a given account after applying the filters")
@@ -312,24 +457,61 @@ public class PolicyCrudService {
     @APIResponse(responseCode = "400", description = "Bad parameter for sorting was passed")
     @APIResponse(responseCode = "404", description = "No policies found for customer")
     @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action")
-    @APIResponse(responseCode = "200", description = "PolicyIds found", content =
-    @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = UUID.class)))
+    @APIResponse(responseCode = "200", description = "PolicyIds found", content = {
+            @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(type = SchemaType.ARRAY, implementation = UUID.class)),
+            @Content(mediaType = APPLICATION_NDJSON, schema = @Schema(implementation = UUID.class))
+    })
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
     public Response getPolicyIdsForCustomer() {
 
         if (!user.canReadPolicies()) {
-            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_RETRIEVE_POLICIES)).build();
+            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_RETRIEVE_POLICIES))
+                    .type(MediaType.APPLICATION_JSON_TYPE).build();
         }
 
-        List<UUID> uuids;
+        Pager pager;
         try {
-            Pager pager = PagingUtils.extractPager(uriInfo, new ColumnGetter(Policy.class));
-            uuids = Policy.getPolicyIdsForCustomer(entityManager, user.getOrgId(), pager);
-
+            pager = PagingUtils.extractPager(uriInfo, new ColumnGetter(Policy.class));
         } catch (IllegalArgumentException iae) {
             return Response.status(400, iae.getLocalizedMessage()).build();
         }
 
-        return Response.ok(uuids).build();
+        // Newline delimited JSON has to be asked for explicitly, the JSON array stays the default
+        boolean ndjson = httpHeaders.getAcceptableMediaTypes().stream()
+                .anyMatch(mediaType -> mediaType.toString().startsWith(APPLICATION_NDJSON));
+
+        // The ids are written out as they come from the database cursor, without collecting them first
+        String orgId = user.getOrgId();
+        StreamingOutput output = inTransaction(outputStream -> {
+            try (Stream<UUID> ids = Policy.streamPolicyIdsForCustomer(entityManager, orgId, pager)) {
+                writeIds(outputStream, ids, ndjson);
+            }
+        });
+
+        return Response.ok(output, ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON).build();
+    }
+
+    private static void writeIds(OutputStream outputStream, Stream<UUID> ids, boolean ndjson) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if (!ndjson) {
+            writer.write('[');
+        }
+        boolean first = true;
+        for (Iterator<UUID> iterator = ids.iterator(); iterator.hasNext(); first = false) {
+            if (!ndjson && !first) {
+                writer.write(',');
+            }
+            writer.write('"');
+            writer.write(iterator.next().toString());
+            writer.write('"');
+            if (ndjson) {
+                writer.write('\n');
+            }
+        }
+        if (!ndjson) {
+            writer.write(']');
+        }
+        writer.flush();
     }
 
 
@@ -349,11 +531,10 @@ public class PolicyCrudService {
     })
     @POST
     @Path("/")
-    @Transactional
-    public Response storePolicy(@QueryParam("alsoStore") boolean alsoStore, @NotNull @Valid Policy policy) {
+    public Uni<Response> storePolicy(@QueryParam("alsoStore") boolean alsoStore, @NotNull @Valid Policy policy) {
 
         if (!user.canReadPolicies()) {
-            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build();
+            return Uni.createFrom().item(Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build());
         }
 
         // We use the indirection, so that for testing we can produce known UUIDs
@@ -361,36 +542,123 @@ public class PolicyCrudService {
         policy.customerid = user.getAccount();
         policy.orgId = user.getOrgId();
 
-        Response invalidNameResponse = isNameUnique(policy);
-        if (invalidNameResponse != null) {
-            return invalidNameResponse;
+        // When the policy is stored, the name is checked by the insert itself
+        // in the same round-trip. A name conflict then still costs an engine call, whose outcome is cached.
+        if (!alsoStore) {
+            Response invalidNameResponse = isNameUnique(policy);
+            if (invalidNameResponse != null) {
+                return Uni.createFrom().item(invalidNameResponse);
+            }
         }
 
-        try {
-            lightweightEngine.validateCondition(policy.conditions);
-        } catch (Exception e) {
-            return Response.status(400, e.getMessage()).entity(getEngineExceptionMsg(e)).build();
-        }
+        // The request scoped user can't be used any more once the engine has answered
+        boolean canWritePolicies = user.canWritePolicies();
 
-        if (!alsoStore) {
-            return Response.status(200).entity(new Msg("Policy validated")).build();
-        }
+        return validateConditionAsync(policy.conditions)
+                .emitOn(Infrastructure.getDefaultWorkerPool())
+                .map(invalidCondition -> invalidCondition.orElseGet(() -> {
+                    if (!alsoStore) {
+                        return Response.status(200).entity(new Msg("Policy validated")).build();
+                    }
 
+                    if (!canWritePolicies) {
+                        return Response.status(Response.Status.FORBIDDEN).entity(new Msg("Missing permissions to store policy")).build();
+                    }
+
+                    return QuarkusTransaction.requiringNew().call(() -> {
+                        if (!Policy.insertIfNameIsUnique(entityManager, policy)) {
+                            return nameNotUniqueResponse();
+                        }
+
+                        // Policy is persisted. Return its location.
+                        URI location =
+                                UriBuilder.fromResource(PolicyCrudService.class).path(PolicyCrudService.class, "getPolicy").build(policy.id);
+                        return Response.created(location).entity(policy).build();
+                    });
+                }));
+    }
+
+    @Operation(summary = "Validate and persist a list of policies for the given account. Result will be the outcome " +
+            "of each policy, in the order they were passed")
+    @APIResponses({
+            @APIResponse(responseCode = "500", description = "Internal error"),
+            @APIResponse(responseCode = "400", description = "No policies or too many policies provided"),
+            @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action"),
+            @APIResponse(responseCode = "200", description = "Policies processed",
+                    content = @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = PolicyBatchResult.class)))
+    })
+    @POST
+    @Path("/batch")
+    public Response storePolicies(@NotEmpty @Size(max = MAX_BATCH_SIZE) List<Policy> policies) {
+
+        if (!user.canReadPolicies()) {
+            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build();
+        }
         if (!user.canWritePolicies()) {
             return Response.status(Response.Status.FORBIDDEN).entity(new Msg("Missing permissions to store policy")).build();
         }
 
-        policy.persist();
-        setLatestToNow();
+        PolicyBatchResult[] results = new PolicyBatchResult[policies.size()];
 
-        // Policy is persisted. Return its location.
-        URI location =
-                UriBuilder.fromResource(PolicyCrudService.class).path(PolicyCrudService.class, "getPolicy").build(policy.id);
-        return Response.created(location).entity(policy).build();
+        // Names are checked all at once, against the stored policies and against the previous ones of the batch
+        Set<String> names = policies.stream().filter(Objects::nonNull).map(policy -> policy.name)
+                .filter(Objects::nonNull).collect(Collectors.toSet());
+        Set<String> takenNames = Policy.findNamesForCustomer(entityManager, user.getOrgId(), names);
+
+        Map<Integer, Policy> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < policies.size(); i++) {
+            Policy policy = policies.get(i);
+            if (policy == null) {
+                results[i] = PolicyBatchResult.failed(400, "No policy provided");
+                continue;
+            }
+            Set<ConstraintViolation<Policy>> violations = validator.validate(policy);
+            if (!violations.isEmpty()) {
+                String error = violations.stream().map(ConstraintViolation::getMessage).collect(Collectors.joining(";"));
+                results[i] = PolicyBatchResult.failed(400, error);
+            } else if (!takenNames.add(policy.name)) {
+                results[i] = PolicyBatchResult.failed(409, "Policy name is not unique");
+            } else {
+                candidates.put(i, policy);
+            }
+        }
+
+        // The engine is called before any transaction is opened, a slow engine doesn't hold a connection
+        Map<String, Exception> invalidConditions = conditionValidator.validateConditions(
+                candidates.values().stream().map(policy -> policy.conditions).collect(Collectors.toList()));
+
+        Map<Integer, Policy> valid = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Policy> candidate : candidates.entrySet()) {
+            Policy policy = candidate.getValue();
+            Exception invalidCondition = invalidConditions.get(policy.conditions);
+            if (invalidCondition != null) {
+                results[candidate.getKey()] = PolicyBatchResult.failed(400, getEngineExceptionMsg(invalidCondition).msg);
+                continue;
+            }
+            policy.id = uuidHelper.getUUID();
+            policy.customerid = user.getAccount();
+            policy.orgId = user.getOrgId();
+            valid.put(candidate.getKey(), policy);
+        }
+
+        // All the valid policies in one statement, a concurrent write may still have taken some of the names
+        Set<UUID> inserted = QuarkusTransaction.requiringNew().call(() ->
+                Policy.insertIfNamesAreUnique(entityManager, new ArrayList<>(valid.values())));
+        for (Map.Entry<Integer, Policy> policy : valid.entrySet()) {
+            results[policy.getKey()] = inserted.contains(policy.getValue().id)
+                    ? PolicyBatchResult.stored(policy.getValue().id)
+                    : PolicyBatchResult.failed(409, "Policy name is not unique");
+        }
+
+        return Response.ok(List.of(results)).build();
     }
 
     private Response getResponseSavingPolicyThrowable(Throwable t) {
-        if (t instanceof PersistenceException && t.getCause() instanceof ConstraintViolationException) {
+        if (t instanceof PersistenceException && t.getCause() instanceof ConstraintViolationException cve
+                && NAME_UNIQUE_INDEX.equals(cve.getConstraintName())) {
+            // A concurrent write got the name first
+            return nameNotUniqueResponse();
+        } else if (t instanceof PersistenceException && t.getCause() instanceof ConstraintViolationException) {
             return Response.status(409, t.getMessage()).entity(new Msg("Constraint violation")).build();
         } else {
             Log.warn("Getting response failed", t);
@@ -398,10 +666,28 @@ public class PolicyCrudService {
         }
     }
 
+    /**
+     * Validates the condition with the engine, without blocking the request thread.
+     *
+     * @return The 400 response to send if the condition is not valid, nothing otherwise
+     */
+    private Uni<Optional<Response>> validateConditionAsync(String condition) {
+        return conditionValidator.validateConditionAsync(condition)
+                .map(ignored -> Optional.<Response>empty())
+                .onFailure().recoverWithItem(t -> {
+                    Exception e = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+                    return Optional.of(Response.status(400, e.getMessage()).entity(getEngineExceptionMsg(e)).build());
+                });
+    }
+
     private Msg getEngineExceptionMsg(Exception e) {
         Msg msg;
         if (e instanceof RuntimeException && e.getCause() instanceof ConnectException
-                || e instanceof ProcessingException) {
+                || e instanceof ProcessingException
+                // The circuit breaker is open or too many calls are in flight towards the engine
+                || e instanceof FaultToleranceException
+                // The engine did not answer within policies.validation.timeout
+                || e instanceof TimeoutException) {
             msg = new Msg("Connection to backend-engine failed. Please retry later");
         } else {
             msg = new Msg(e.getMessage());
@@ -428,8 +714,7 @@ public class PolicyCrudService {
         if (policy == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         } else {
-            policy.delete(policy);
-            setLatestToNow();
+            Policy.deletePoliciesForCustomer(entityManager, user.getOrgId(), List.of(policyId));
             return Response.ok(policy).build();
         }
     }
@@ -447,18 +732,8 @@ public class PolicyCrudService {
             return Response.status(Response.Status.FORBIDDEN).entity(new Msg("Missing permissions to delete policy")).build();
         }
 
-        boolean dbUpdated = false;
-        for (UUID uuid : uuids) {
-            Policy policy = findPolicy(uuid);
-            if (policy != null) {
-                policy.delete();
-                dbUpdated = true;
-            }
-        }
-        if (dbUpdated) {
-            setLatestToNow();
-        }
-        return Response.ok(uuids).build();
+        List<UUID> deleted = Policy.deletePoliciesForCustomer(entityManager, user.getOrgId(), uuids);
+        return Response.ok(deleted).build();
     }
 
     @Operation(summary = "Enable/disable a policy")
@@ -486,7 +761,6 @@ public class PolicyCrudService {
             storedPolicy.isEnabled = shouldBeEnabled;
             storedPolicy.setMtimeToNow();
             storedPolicy.persist();
-            setLatestToNow();
             return Response.ok().build();
         }
     }
@@ -508,19 +782,7 @@ public class PolicyCrudService {
             return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_UPDATE_POLICY)).build();
         }
 
-        List<UUID> changed = new ArrayList<>(uuids.size());
-        for (UUID uuid : uuids) {
-            Policy storedPolicy = findPolicy(uuid);
-            if (storedPolicy != null) {
-                storedPolicy.isEnabled = shouldBeEnabled;
-                storedPolicy.setMtimeToNow();
-                storedPolicy.persist();
-                changed.add(uuid);
-            }
-        }
-        if (!changed.isEmpty()) {
-            setLatestToNow();
-        }
+        List<UUID> changed = Policy.setEnabledStateForCustomer(entityManager, user.getOrgId(), uuids, shouldBeEnabled);
         return Response.ok(changed).build();
     }
 
@@ -536,59 +798,64 @@ public class PolicyCrudService {
     @APIResponse(responseCode = "409", description = "Persisting failed",
             content = @Content(schema = @Schema(implementation = Msg.class))
     )
-    @Transactional
-    public Response updatePolicy(@QueryParam("dry") boolean dryRun, @PathParam("policyId") UUID policyId,
-                                 @NotNull @Valid Policy policy) {
+    public Uni<Response> updatePolicy(@QueryParam("dry") boolean dryRun, @PathParam("policyId") UUID policyId,
+                                      @NotNull @Valid Policy policy) {
 
         if (!user.canWritePolicies()) {
-            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_UPDATE_POLICY)).build();
+            return Uni.createFrom().item(Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_UPDATE_POLICY)).build());
         }
 
         Policy storedPolicy = findPolicy(policyId);
 
-        ResponseBuilder builder;
         if (storedPolicy == null) {
-            builder = Response.status(404, "Original policy not found");
-        } else {
-            if (!policy.id.equals(policyId)) {
-                builder = Response.status(400, "Invalid policy");
-            } else {
-
-                Response invalidNameResponse = isNameUnique(policy);
-                if (invalidNameResponse != null) {
-                    return invalidNameResponse;
-                }
+            return Uni.createFrom().item(Response.status(404, "Original policy not found").build());
+        }
+        if (!policy.id.equals(policyId)) {
+            return Uni.createFrom().item(Response.status(400, "Invalid policy").build());
+        }
 
-                try {
-                    lightweightEngine.validateCondition(policy.conditions);
-                } catch (Exception e) {
-                    return Response.status(400, e.getMessage()).entity(getEngineExceptionMsg(e)).build();
-                }
+        // When the policy is updated, the name is checked by the update itself
+        // in the same round-trip. A name conflict then still costs an engine call, whose outcome is cached.
+        if (dryRun) {
+            Response invalidNameResponse = isNameUnique(policy);
+            if (invalidNameResponse != null) {
+                return Uni.createFrom().item(invalidNameResponse);
+            }
+        }
 
-                if (dryRun) {
-                    return Response.status(200).entity(new Msg("Policy validated")).build();
-                }
+        // A rename or a description change does not need the engine
+        Uni<Optional<Response>> invalidCondition = policy.conditions.equals(storedPolicy.conditions)
+                ? Uni.createFrom().item(Optional.empty())
+                : validateConditionAsync(policy.conditions);
 
-                // All is good, we can now do the real work
-                try {
-                    storedPolicy.populateFrom(policy);
-                    storedPolicy.setMtimeToNow();
+        // The request scoped user can't be used any more once the engine has answered
+        String orgId = user.getOrgId();
 
-                    setLatestToNow();
-                    return Response.ok(storedPolicy).build();
-                } catch (Throwable t) {
-                    try {
-                        transactionManager.setRollbackOnly();
-                    } catch (SystemException ex) {
-                        throw new RuntimeException(ex);
+        return invalidCondition
+                .emitOn(Infrastructure.getDefaultWorkerPool())
+                .map(invalid -> invalid.orElseGet(() -> {
+                    if (dryRun) {
+                        return Response.status(200).entity(new Msg("Policy validated")).build();
                     }
 
-                    return getResponseSavingPolicyThrowable(t);
-                }
-            }
-        }
-
-        return builder.build();
+                    // All is good, we can now do the real work
+                    return QuarkusTransaction.requiringNew().call(() -> {
+                        try {
+                            Optional<Policy> updatedPolicy = Policy.updateIfNameIsUnique(entityManager, orgId, policyId, policy);
+                            if (updatedPolicy.isPresent()) {
+                                return Response.ok(updatedPolicy.get()).build();
+                            }
+                            // The policy may have been deleted while the engine was validating it
+                            if (Policy.findVersionById(orgId, policyId).isEmpty()) {
+                                return Response.status(404, "Original policy not found").build();
+                            }
+                            return nameNotUniqueResponse();
+                        } catch (Throwable t) {
+                            QuarkusTransaction.setRollbackOnly();
+                            return getResponseSavingPolicyThrowable(t);
+                        }
+                    });
+                }));
     }
 
     @Operation(summary = "Validates a Policy condition")
@@ -599,20 +866,49 @@ public class PolicyCrudService {
             @APIResponse(responseCode = "400", description = "No policy provided or condition not valid", content = @Content(schema = @Schema(implementation = Msg.class))),
             @APIResponse(responseCode = "500", description = "Internal error")
     })
-    public Response validateCondition(@Valid @NotNull Policy policy) {
+    public Uni<Response> validateCondition(@Valid @NotNull Policy policy) {
 
         if (!user.canReadPolicies()) {
-            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build();
+            return Uni.createFrom().item(Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build());
         }
 
-        try {
-            lightweightEngine.validateCondition(policy.conditions);
-        } catch (Exception e) {
-            return Response.status(400, e.getMessage()).entity(getEngineExceptionMsg(e)).build();
+        return validateConditionAsync(policy.conditions)
+                .map(invalidCondition -> invalidCondition.orElseGet(() ->
+                        Response.status(200).entity(new Msg("Policy.condition validated")).build()));
+    }
+
+    @Operation(summary = "Validates a list of Policy conditions. Result will be the outcome of each condition, " +
+            "in the order they were passed")
+    @POST
+    @Path("/validate/batch")
+    @APIResponses({
+            @APIResponse(responseCode = "200", description = "Conditions processed",
+                    content = @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = PolicyBatchResult.class))),
+            @APIResponse(responseCode = "400", description = "No conditions or too many conditions provided"),
+            @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action", content = @Content(schema = @Schema(implementation = Msg.class))),
+            @APIResponse(responseCode = "500", description = "Internal error")
+    })
+    public Response validateConditions(@NotEmpty @Size(max = MAX_BATCH_SIZE) List<String> conditions) {
+
+        if (!user.canReadPolicies()) {
+            return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_VERIFY_POLICY)).build();
         }
 
-        return Response.status(200).entity(new Msg("Policy.condition validated")).build();
+        // Duplicates are only sent once to the engine
+        Map<String, Exception> invalidConditions = conditionValidator.validateConditions(
+                conditions.stream().filter(Objects::nonNull).collect(Collectors.toList()));
 
+        List<PolicyBatchResult> results = new ArrayList<>(conditions.size());
+        for (String condition : conditions) {
+            if (condition == null) {
+                results.add(PolicyBatchResult.failed(400, "No condition provided"));
+            } else if (invalidConditions.containsKey(condition)) {
+                results.add(PolicyBatchResult.failed(400, getEngineExceptionMsg(invalidConditions.get(condition)).msg));
+            } else {
+                results.add(PolicyBatchResult.validated());
+            }
+        }
+        return Response.ok(results).build();
     }
 
     @Operation(summary = "Validates the Policy.name and verifies if it is unique.")
@@ -668,14 +964,54 @@ public class PolicyCrudService {
     @APIResponse(responseCode = "200", description = "Policy found", content =
     @Content(schema = @Schema(implementation = Policy.class)))
     @APIResponse(responseCode = "404", description = "Policy not found")
+    @APIResponse(responseCode = "400", description = "Bad fields parameter")
     @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action", content = @Content(schema = @Schema(implementation = Msg.class)))
     @Parameter(name = "id", description = "UUID of the policy")
+    @Parameter(
+            name = "fields",
+            in = ParameterIn.QUERY,
+            description = "Comma separated list of the policy properties to return, all of them if not specified.",
+            schema = @Schema(type = SchemaType.STRING)
+    )
     public Response getPolicy(@PathParam("id") UUID policyId) {
 
         if (!user.canReadPolicies()) {
             return Response.status(Response.Status.FORBIDDEN).entity(new Msg(MISSING_PERMISSIONS_TO_RETRIEVE_POLICIES)).build();
         }
 
+        List<String> fields;
+        try {
+            fields = PagingUtils.extractFields(uriInfo, new ColumnGetter(Policy.class));
+        } catch (IllegalArgumentException iae) {
+            return Response.status(400, iae.getLocalizedMessage()).build();
+        }
+
+        // Revalidation only needs the version of the policy, not the policy itself.
+        if (httpHeaders.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Policy.PolicyVersion> version = Policy.findVersionById(user.getOrgId(), policyId);
+            if (version.isPresent()) {
+                ResponseBuilder notModified = request.evaluatePreconditions(getPolicyEtag(version.get().version, version.get().lastTriggered, fields));
+                if (notModified != null) {
+                    return notModified.build();
+                }
+            }
+        }
+
+        if (!fields.isEmpty()) {
+            // The ETag comes from the same statement, so that it matches the fields returned
+            List<String> selection = new ArrayList<>(fields);
+            selection.removeAll(List.of("version", "lastTriggered"));
+            selection.add("version");
+            selection.add("lastTriggered");
+            return Policy.findFieldsById(entityManager, user.getOrgId(), policyId, selection)
+                    .map(policyFields -> {
+                        EntityTag etag = getPolicyEtag((Long) policyFields.get("version"), (Long) policyFields.get("lastTriggered"), fields);
+                        policyFields.keySet().retainAll(fields);
+                        return Response.ok(policyFields).header("ETag", etag).build();
+                    })
+                    .orElseGet(() -> Response.status(Response.Status.NOT_FOUND).build());
+        }
+
         Policy policy = findPolicy(policyId);
 
         ResponseBuilder builder;
@@ -683,13 +1019,19 @@ public class PolicyCrudService {
             builder = Response.status(Response.Status.NOT_FOUND);
         } else {
             builder = Response.ok(policy);
-            EntityTag etag = new EntityTag(String.valueOf(policy.hashCode()));
+            EntityTag etag = getPolicyEtag(policy.getVersion(), policy.getLastTriggered(), fields);
             builder.header("ETag", etag);
         }
 
         return builder.build();
     }
 
+    private static EntityTag getPolicyEtag(long version, long lastTriggered, List<String> fields) {
+        // A subset of the fields is a different representation of the same version
+        String suffix = fields.isEmpty() ? "" : "-" + Integer.toHexString(fields.hashCode());
+        return new EntityTag(version + "-" + lastTriggered + suffix);
+    }
+
     // workaround for returning generic types: https://github.com/swagger-api/swagger-core/issues/498#issuecomment-74510379
     // This class is used only for swagger return type
     private static class PagedResponseOfHistoryItem extends PagingUtils.PagedResponse<HistoryItem> {
@@ -720,10 +1062,19 @@ public class PolicyCrudService {
                     description = "Number of items per page, if not specified uses 50. Maximum value is 200.",
                     schema = @Schema(type = SchemaType.INTEGER)
             ),
+            @Parameter(
+                    name = "cursor",
+                    in = ParameterIn.QUERY,
+                    description = "Switches to cursor paging, which ignores the offset. Pass an empty value for the first page, " +
+                            "then the cursor found in the 'next' link. Only sorting by ctime is supported in this mode.",
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
             @Parameter(
                     name = "filter[name]",
                     in = ParameterIn.QUERY,
-                    description = "Filtering history entries by the host name depending on the Filter operator used.",
+                    description = "Filtering history entries by the host name depending on the Filter operator used. " +
+                            "The like operator matches the entries whose host name contains the value, ignoring the case. " +
+                            "The % and _ of the value are SQL wildcards.",
                     schema = @Schema(type = SchemaType.STRING)
             ),
             @Parameter(
@@ -743,7 +1094,9 @@ public class PolicyCrudService {
             @Parameter(
                     name = "filter[id]",
                     in = ParameterIn.QUERY,
-                    description = "Filtering history entries by the id depending on the Filter operator used.",
+                    description = "Filtering history entries by the id depending on the Filter operator used. " +
+                            "The like operator matches the entries whose host id contains the value, ignoring the case. " +
+                            "The % and _ of the value are SQL wildcards.",
                     schema = @Schema(type = SchemaType.STRING)
             ),
             @Parameter(
@@ -816,39 +1169,90 @@ public class PolicyCrudService {
         return builder.build();
     }
 
-    private ResponseBuilder buildHistoryResponse(UUID policyId, Pager pager) {
-        List<HistoryItem> items;
+    @Operation(summary = "Retrieve the number of triggers of a single policy per hour or per day over the last 14 days")
+    @APIResponse(responseCode = "200", description = "Histogram could be retrieved, the buckets without triggers are left out",
+            content = @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = HistogramItem.class)))
+    @APIResponse(responseCode = "400", description = "Bad parameters passed")
+    @APIResponse(responseCode = "403", description = "Individual permissions missing to complete action")
+    @APIResponse(responseCode = "404", description = "Policy not found")
+    @APIResponse(responseCode = "500", description = "Retrieval of Histogram failed")
+    @Parameters({
+            @Parameter(
+                    name = "bucket",
+                    in = ParameterIn.QUERY,
+                    description = "Size of the buckets, in UTC",
+                    schema = @Schema(
+                            type = SchemaType.STRING,
+                            enumeration = {
+                                    "hour",
+                                    "day"
+                            },
+                            defaultValue = "hour"
+                    )
+            ),
+            @Parameter(name = "id", description = "UUID of the policy")
+    })
+    @GET
+    @Path("/{id}/history/histogram")
+    public Response getTriggerHistogramForPolicy(@PathParam("id") UUID policyId, @QueryParam("bucket") String bucket) {
+        if (!user.canReadPolicies()) {
+            return Response.status(Response.Status.FORBIDDEN).entity(new Msg("Missing permissions to retrieve the policy history")).build();
+        }
 
-        long totalCount = policiesHistoryRepository.count(user.getOrgId(), user.getHostGroupIds(), policyId, pager);
+        ResponseBuilder builder;
 
-        if (totalCount > 0) {
-            items = policiesHistoryRepository.find(user.getOrgId(), user.getHostGroupIds(), policyId, pager)
-                    .stream().map(historyEntry ->
-                            new HistoryItem(historyEntry.getCtime(), historyEntry.getHostId(), historyEntry.getHostName())
-                    ).collect(Collectors.toList());
+        Policy policy = findPolicy(policyId);
+
+        if (policy == null) {
+            builder = Response.status(Response.Status.NOT_FOUND);
         } else {
-            items = Collections.emptyList();
+
+            try {
+                HistogramBucket histogramBucket = HistogramBucket.fromString(bucket);
+                long since = System.currentTimeMillis() - HISTOGRAM_RANGE.toMillis();
+                List<HistogramItem> items = policiesHistoryRepository.histogram(user.getOrgId(), user.getHostGroupIds(), policyId, histogramBucket, since);
+                builder = Response.ok(items);
+            } catch (IllegalArgumentException iae) {
+                builder = Response.status(400, iae.getMessage());
+            } catch (Exception e) {
+                String msg = "Retrieval of histogram failed with: " + e.getMessage();
+                Log.warn(msg);
+                builder = Response.serverError().entity(msg);
+            }
         }
+        return builder.build();
+    }
 
-        Page<HistoryItem> itemsPage = new Page<>(items, pager, totalCount);
-        return PagingUtils.responseBuilder(itemsPage);
+    private ResponseBuilder buildHistoryResponse(UUID policyId, Pager pager) {
+        Page<PoliciesHistoryEntry> entriesPage = pager.isKeyset()
+                ? policiesHistoryRepository.seek(user.getOrgId(), user.getHostGroupIds(), policyId, pager)
+                : policiesHistoryRepository.findWithCount(user.getOrgId(), user.getHostGroupIds(), policyId, pager);
+
+        List<HistoryItem> items = entriesPage.stream().map(historyEntry ->
+                new HistoryItem(historyEntry.getCtime(), historyEntry.getHostId(), historyEntry.getHostName())
+        ).collect(Collectors.toList());
+
+        Page<HistoryItem> itemsPage = new Page<>(items, pager, entriesPage.getTotalCount(), entriesPage.getNextCursor());
+        String location = UriBuilder.fromResource(PolicyCrudService.class)
+                .path(PolicyCrudService.class, "getTriggerHistoryForPolicy").build(policyId).toString();
+        return PagingUtils.responseBuilder(itemsPage, location);
     }
 
     private Response isNameUnique(Policy policy) {
         Policy tmp = Policy.findByName(user.getOrgId(), policy.name);
 
         if (tmp != null && !tmp.id.equals(policy.id)) {
-            return Response.status(409).entity(new Msg("Policy name is not unique")).build();
+            return nameNotUniqueResponse();
         }
 
         return null;
     }
 
-    private Policy findPolicy(UUID policyId) {
-        return Policy.findById(user.getOrgId(), policyId);
+    private static Response nameNotUniqueResponse() {
+        return Response.status(409).entity(new Msg("Policy name is not unique")).build();
     }
 
-    private void setLatestToNow() {
-        orgIdLatestUpdateRepository.setLatestToNow(user.getOrgId());
+    private Policy findPolicy(UUID policyId) {
+        return Policy.findById(user.getOrgId(), policyId);
     }
 }
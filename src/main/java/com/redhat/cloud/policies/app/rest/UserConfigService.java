@@ -34,6 +34,7 @@ import jakarta.ws.rs.core.Response;
 
 import io.micrometer.core.annotation.Timed;
 import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
@@ -63,7 +64,7 @@ public class UserConfigService {
 
     @GET
     @Path("/preferences")
-    public UserPreferences getSettingsSchema() {
+    public Uni<UserPreferences> getSettingsSchema() {
 
         if (environmentInfo.isFedramp()) {
             throw new NotFoundException();
@@ -73,11 +74,10 @@ public class UserConfigService {
             throw new ForbiddenException("You don't have permission to read settings");
         }
 
-        try {
-            return notifications.getUserPreferences(bundle, application, user.getRawRhIdHeader());
-        } catch (Exception e) {
-            Log.warn("Retrieving settings failed: " + e.getMessage());
-            throw new ServerErrorException(Response.serverError().entity(new Msg(e.getMessage())).build());
-        }
+        return notifications.getUserPreferences(bundle, application, user.getRawRhIdHeader())
+                .onFailure().transform(e -> {
+                    Log.warn("Retrieving settings failed: " + e.getMessage());
+                    return new ServerErrorException(Response.serverError().entity(new Msg(e.getMessage())).build());
+                });
     }
 }
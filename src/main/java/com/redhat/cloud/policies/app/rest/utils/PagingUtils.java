@@ -18,6 +18,10 @@ package com.redhat.cloud.policies.app.rest.utils;
 
 import static java.lang.Integer.max;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redhat.cloud.policies.app.model.pager.Cursor;
 import com.redhat.cloud.policies.app.model.pager.Page;
 import com.redhat.cloud.policies.app.model.pager.Pager;
 import com.redhat.cloud.policies.app.model.ColumnGetter;
@@ -25,9 +29,14 @@ import com.redhat.cloud.policies.app.model.ColumnInfo;
 import com.redhat.cloud.policies.app.model.filter.Filter;
 import io.quarkus.panache.common.Sort;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MultivaluedMap;
@@ -35,6 +44,7 @@ import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.UriInfo;
 import java.util.List;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,7 +54,11 @@ public class PagingUtils {
     final static String QUERY_LIMIT = "limit";
     final static String QUERY_COLUMN = "sortColumn";
     final static String QUERY_DIRECTION = "sortDirection";
+    final static String QUERY_CURSOR = "cursor";
+    final static String QUERY_COUNT = "count";
+    final static String QUERY_FIELDS = "fields";
     final static Pattern FILTER_PATTERN = Pattern.compile("^filter\\[(.+)\\]$");
+    final static String POLICIES_LOCATION = "/api/policies/v1.0/policies";
     final static String FILTER_OP = "filter:op";
 
     private final Pager.PagerBuilder pageBuilder;
@@ -68,14 +82,56 @@ public class PagingUtils {
         // Handle sorting parts
         List<String> columns = queryParams.get(QUERY_COLUMN);
         List<String> directions = queryParams.get(QUERY_DIRECTION);
-        addSorting(columns, directions);
+        if (queryParams.containsKey(QUERY_CURSOR)) {
+            // An empty cursor asks for the first page in keyset mode
+            addKeyset(queryParams.getFirst(QUERY_CURSOR), columns, directions);
+        } else {
+            addSorting(columns, directions);
+        }
 
         // Handle filters
         addFilters(queryParams);
 
+        String count = queryParams.getFirst(QUERY_COUNT);
+        if (count != null) {
+            pageBuilder.count(Pager.CountMode.fromName(count));
+        }
+
+        pageBuilder.fields(getFields(queryParams.get(QUERY_FIELDS)));
+
         return pageBuilder.build();
     }
 
+    /**
+     * Reads the {@code fields} query parameter, a comma separated list of the columns to return.
+     *
+     * @return The entity field names of these columns, or an empty list if the whole entity is wanted
+     */
+    public static List<String> extractFields(UriInfo uriInfo, ColumnGetter columnGetter) {
+        return new PagingUtils(columnGetter).getFields(uriInfo.getQueryParameters().get(QUERY_FIELDS));
+    }
+
+    List<String> getFields(List<String> values) {
+        if (values == null) {
+            return List.of();
+        }
+        List<String> fields = new ArrayList<>();
+        for (String value : values) {
+            for (String name : value.split(",")) {
+                if (!name.isBlank()) {
+                    String fieldName = getSelectableColumn(name.trim()).getFieldName();
+                    if (!fields.contains(fieldName)) {
+                        fields.add(fieldName);
+                    }
+                }
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException(QUERY_FIELDS + " expects at least one column");
+        }
+        return fields;
+    }
+
     void setPaging(String itemsPerPage, String page) {
         boolean usingNoLimit = false;
         if (itemsPerPage != null) {
@@ -134,6 +190,38 @@ public class PagingUtils {
         }
     }
 
+    void addKeyset(String encodedCursor, List<String> columns, List<String> directions) {
+        if (columns != null && columns.size() > 1) {
+            throw new IllegalArgumentException("Only one " + QUERY_COLUMN + " is allowed together with " + QUERY_CURSOR);
+        }
+
+        Cursor cursor = null;
+        if (encodedCursor != null && !encodedCursor.isEmpty()) {
+            cursor = Cursor.decode(encodedCursor);
+        }
+
+        if (cursor != null && columns == null && directions == null) {
+            // The cursor remembers the sorting it was created for
+            ColumnInfo column = columnGetter.getByFieldName(cursor.getColumn());
+            if (column == null || !column.isSortable()) {
+                throw new IllegalArgumentException("Invalid cursor: unknown sortable column [" + cursor.getColumn() + "]");
+            }
+            pageBuilder.addSort(column.getFieldName(), cursor.getDirection());
+        } else {
+            addSorting(columns, directions);
+            if (cursor != null) {
+                Sort.Column sortColumn = pageBuilder.build().getSort().getColumns().get(0);
+                if (!sortColumn.getName().equals(cursor.getColumn()) || sortColumn.getDirection() != cursor.getDirection()) {
+                    throw new IllegalArgumentException("Invalid cursor: it was created for a different sort order");
+                }
+            }
+        }
+
+        // Offsets do not apply when seeking
+        pageBuilder.page(0);
+        pageBuilder.keyset(cursor);
+    }
+
     void addFilters(MultivaluedMap<String, String> queryParams) {
         for (String key : queryParams.keySet()) {
             Matcher filterMatcher = FILTER_PATTERN.matcher(key);
@@ -201,6 +289,18 @@ public class PagingUtils {
         return info;
     }
 
+    ColumnInfo getSelectableColumn(String name) {
+        // Both the column names and the JSON property names are accepted
+        ColumnInfo info = columnGetter.get(name);
+        if (info == null) {
+            info = columnGetter.getByFieldName(name);
+        }
+        if (info == null || !info.isSelectable()) {
+            throw new IllegalArgumentException("Unknown selectable column requested: [" + name + "]");
+        }
+        return info;
+    }
+
     ColumnInfo getFilterableColumn(String name) {
         ColumnInfo info = columnGetter.get(name);
         if (info == null || !info.isFilterable()) {
@@ -210,20 +310,71 @@ public class PagingUtils {
     }
 
     public static <T> ResponseBuilder responseBuilder(Page<T> page) {
+        return responseBuilder(page, POLICIES_LOCATION);
+    }
+
+    /**
+     * @param location The path of the paged collection, which the links point to
+     */
+    public static <T> ResponseBuilder responseBuilder(Page<T> page, String location) {
+        // The page hash only depends on its items, the count is what else may change for the same request.
+        return responseBuilder(page, new EntityTag(String.valueOf(Objects.hash(page, page.getTotalCount()))), location);
+    }
+
+    /**
+     * @param etag The tag to send along the page, for callers which can tell the version of the page
+     *             cheaper than by fetching it, or null to send none
+     */
+    public static <T> ResponseBuilder responseBuilder(Page<T> page, EntityTag etag) {
+        return responseBuilder(page, etag, POLICIES_LOCATION);
+    }
+
+    private static <T> ResponseBuilder responseBuilder(Page<T> page, EntityTag etag, String location) {
         ResponseBuilder builder;
 
         if (page.isEmpty()) {
             builder = Response.status(Response.Status.NOT_FOUND);
         } else {
-            builder = Response.ok(new PagedResponse<>(page));
-            EntityTag etag = new EntityTag(String.valueOf(page.hashCode()));
-            builder.header("ETag", etag);
-            builder.header("TotalCount", Long.toString(page.getTotalCount()));
+            builder = Response.ok(new PagedResponse<>(page, location));
+            if (etag != null) {
+                builder.header("ETag", etag);
+            }
+            if (page.getTotalCount() != Page.UNKNOWN_COUNT) {
+                builder.header("TotalCount", Long.toString(page.getTotalCount()));
+            }
         }
 
         return builder;
     }
 
+    /**
+     * Writes the same document as a {@link PagedResponse} would be serialized to, but the items are taken from
+     * the stream one at a time and written right away, so that they never need to be all in memory.
+     *
+     * @param envelope An empty page, only used for the meta and links sections
+     * @param written  Called with every item once it has been written out
+     */
+    public static <T> void writePagedResponse(ObjectMapper objectMapper, OutputStream output, Page<T> envelope,
+                                              Stream<T> items, Consumer<T> written) throws IOException {
+        PagedResponse<T> response = new PagedResponse<>(envelope);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            // The output stream belongs to the container
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeObjectField("meta", response.meta);
+            generator.writeObjectField("links", response.links);
+            generator.writeArrayFieldStart("data");
+            Iterator<T> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                T item = iterator.next();
+                generator.writeObject(item);
+                written.accept(item);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
     /**
      * Provide a paged response in the desired format.
      * Links need to look like:<br/>
@@ -234,6 +385,8 @@ public class PagingUtils {
      * "next": "/api/myapp/v1/collection/?limit=5&offset=10",
      * "prev": "/api/myapp/v1/collection/?limit=5&offset=0"
      * </pre>
+     * In keyset mode only "first" and "next" are provided, and they carry a cursor instead of an offset.
+     * Without a total count there is no "last" link.
      */
     public static class PagedResponse<T> {
         public Meta meta;
@@ -241,19 +394,31 @@ public class PagingUtils {
         public List<T> data = new ArrayList<>();
 
         public PagedResponse(Page<T> page) {
-            meta = new Meta(page.getTotalCount());
-            data.addAll(page);
+            this(page, POLICIES_LOCATION);
+        }
 
+        public PagedResponse(Page<T> page, String location) {
+            meta = new Meta(page.getTotalCount() == Page.UNKNOWN_COUNT ? null : page.getTotalCount());
+            data.addAll(page);
 
-            String location = "/api/policies/v1.0/policies";
             String format = "%s?limit=%d&offset=%d";
 
             Pager pager = page.getPager();
             int limit = pager.getLimit();
+            if (pager.isKeyset()) {
+                // Keyset pages can only be walked forward, there is no last or previous page
+                String cursorFormat = "%s?limit=%d&cursor=%s";
+                links.put("first", String.format(cursorFormat, location, limit, ""));
+                if (page.getNextCursor() != null) {
+                    links.put("next", String.format(cursorFormat, location, limit, page.getNextCursor().encode()));
+                }
+                return;
+            }
+
             links.put("first", String.format(format, location, limit, 0));
             if (limit == Pager.NO_LIMIT) {
                 links.put("last", String.format(format, location, limit, 0));
-            } else {
+            } else if (page.getTotalCount() != Page.UNKNOWN_COUNT) {
                 long offset;
                 if (page.getTotalCount() % limit == 0) {
                     offset = page.getTotalCount() - pager.getLimit();
@@ -263,7 +428,7 @@ public class PagingUtils {
                 links.put("last", String.format(format, location, limit, offset));
             }
             if (limit != Pager.NO_LIMIT) {
-                if (pager.getOffset() < page.getTotalCount() - limit) {
+                if (page.hasNext()) {
                     links.put("next", String.format(format, location, limit, pager.getOffset() + limit));
                 }
                 if (pager.getOffset() > 0) {
@@ -275,9 +440,14 @@ public class PagingUtils {
     }
 
     public static class Meta {
-        public long count;
-
-        public Meta(long count) {
+        /**
+         * Total number of items. It is only an estimate when the client asked for {@code count=estimate}
+         * and it is left out entirely for {@code count=none}.
+         */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Long count;
+
+        public Meta(Long count) {
             this.count = count;
         }
     }
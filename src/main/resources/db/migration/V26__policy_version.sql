@@ -0,0 +1,2 @@
+-- Bumped by the application on every change of a policy, used as its ETag.
+ALTER TABLE policy ADD COLUMN version bigint NOT NULL DEFAULT 0;
@@ -0,0 +1,24 @@
+-- Deleted policies, kept for a while so that GET /admin/policies/changes can report the deletions.
+CREATE TABLE policy_tombstone (
+    id UUID NOT NULL,
+    org_id TEXT NOT NULL,
+    mtime TIMESTAMP NOT NULL,
+    CONSTRAINT pk_policy_tombstone PRIMARY KEY (id)
+);
+
+CREATE INDEX ix_policy_tombstone_mtime ON policy_tombstone (mtime);
+
+CREATE INDEX ix_policy_mtime ON policy (mtime, id);
+
+-- This stored procedure deletes the tombstones that are older than the retention window.
+-- It is executed from an OpenShift CronJob.
+CREATE PROCEDURE cleanPolicyTombstones() AS $$
+DECLARE
+deleted INTEGER;
+BEGIN
+    RAISE INFO '% Policy tombstones purge starting. Entries older than 7 days will be deleted.', NOW();
+DELETE FROM policy_tombstone WHERE mtime < NOW() AT TIME ZONE 'UTC' - INTERVAL '7 days';
+GET DIAGNOSTICS deleted = ROW_COUNT;
+RAISE INFO '% Policy tombstones purge ended. % entries were deleted from the database.', NOW(), deleted;
+END;
+$$ LANGUAGE PLPGSQL;
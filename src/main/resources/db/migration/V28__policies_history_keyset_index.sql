@@ -0,0 +1,6 @@
+-- Serves the trigger history pages of a policy, sorted by ctime and seeked on (ctime, id), from the index only.
+CREATE INDEX ix_policies_history_org_id_policy_id_ctime
+    ON policies_history (org_id, policy_id, ctime DESC, id) INCLUDE (host_id, host_name);
+
+-- Every history query filters on both the org and the policy, the index above covers them.
+DROP INDEX ix_policies_history_policy_id_org_id;
@@ -0,0 +1,104 @@
+-- Splits policies_history into daily partitions on ctime, so that the retention drops whole partitions
+-- instead of deleting rows one by one and leaving dead tuples behind.
+
+ALTER TABLE policies_history RENAME TO policies_history_unpartitioned;
+
+CREATE TABLE policies_history (
+    id UUID NOT NULL,
+    tenant_id VARCHAR(255),
+    org_id TEXT NOT NULL,
+    policy_id VARCHAR(255) NOT NULL,
+    ctime BIGINT NOT NULL,
+    host_id VARCHAR(255),
+    host_name VARCHAR(255),
+    host_groups JSONB NOT NULL DEFAULT '[]'::jsonb
+) PARTITION BY RANGE (ctime);
+
+-- Entries outside of the daily partitions, e.g. from the far past or future. The daily partitions are
+-- created ahead of time, so that it stays about empty.
+CREATE TABLE policies_history_default PARTITION OF policies_history DEFAULT;
+
+-- Creates the daily partitions between both days which don't exist yet. Entries of these days which are
+-- in the default partition are moved to their partition.
+CREATE PROCEDURE createPoliciesHistoryPartitions(from_day TIMESTAMP, to_day TIMESTAMP) AS $$
+DECLARE
+    day TIMESTAMP := date_trunc('day', from_day);
+    partition_name TEXT;
+    lower_bound BIGINT;
+    upper_bound BIGINT;
+BEGIN
+    WHILE day < to_day LOOP
+        partition_name := 'policies_history_' || to_char(day, 'YYYYMMDD');
+        IF to_regclass(partition_name) IS NULL THEN
+            lower_bound := EXTRACT(EPOCH FROM day) * 1000;
+            upper_bound := EXTRACT(EPOCH FROM day + INTERVAL '1 day') * 1000;
+            EXECUTE format('CREATE TABLE %I (LIKE policies_history INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', partition_name);
+            EXECUTE format('WITH moved AS (DELETE FROM policies_history_default WHERE ctime >= %s AND ctime < %s RETURNING *) '
+                || 'INSERT INTO %I SELECT * FROM moved', lower_bound, upper_bound, partition_name);
+            EXECUTE format('ALTER TABLE policies_history ATTACH PARTITION %I FOR VALUES FROM (%s) TO (%s)',
+                partition_name, lower_bound, upper_bound);
+        END IF;
+        day := day + INTERVAL '1 day';
+    END LOOP;
+END;
+$$ LANGUAGE PLPGSQL;
+
+-- The entries of the last 14 days are kept, older ones are past the retention.
+CALL createPoliciesHistoryPartitions(date_trunc('day', NOW() AT TIME ZONE 'UTC') - INTERVAL '14 days',
+                                     date_trunc('day', NOW() AT TIME ZONE 'UTC') + INTERVAL '7 days');
+
+INSERT INTO policies_history (id, tenant_id, org_id, policy_id, ctime, host_id, host_name, host_groups)
+SELECT id, tenant_id, org_id, policy_id, ctime, host_id, host_name, host_groups
+FROM policies_history_unpartitioned
+WHERE ctime >= EXTRACT(EPOCH FROM NOW() AT TIME ZONE 'UTC' - INTERVAL '14 days') * 1000;
+
+-- Also drops the rule and the indexes of the former table, whose names are reused below
+DROP TABLE policies_history_unpartitioned;
+
+-- Created once the entries are copied, which is faster. They apply to every partition.
+-- The partition key has to be part of the primary key.
+ALTER TABLE policies_history ADD CONSTRAINT pk_policies_history PRIMARY KEY (id, ctime);
+CREATE INDEX ix_policies_history_org_id_policy_id_ctime
+    ON policies_history (org_id, policy_id, ctime DESC, id) INCLUDE (host_id, host_name);
+CREATE INDEX policies_history_host_groups_idx ON policies_history USING gin (host_groups jsonb_path_ops);
+CREATE INDEX ix_policies_history_ctime ON policies_history USING brin (ctime);
+
+-- Same as rule_policies_history_last_triggered, as a trigger which applies to all the partitions
+CREATE FUNCTION policies_history_last_triggered() RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE policy
+       SET last_triggered = GREATEST(last_triggered, NEW.ctime)
+       WHERE id = uuid(NEW.policy_id) and org_id = NEW.org_id;
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
+
+CREATE TRIGGER trigger_policies_history_last_triggered AFTER INSERT ON policies_history
+FOR EACH ROW EXECUTE FUNCTION policies_history_last_triggered();
+
+-- This stored procedure creates the partitions of the next days and drops the ones past the retention.
+-- It is executed from an OpenShift CronJob.
+CREATE OR REPLACE PROCEDURE cleanPoliciesHistory() AS $$
+DECLARE
+today TIMESTAMP := date_trunc('day', NOW() AT TIME ZONE 'UTC');
+retention_start TIMESTAMP := NOW() AT TIME ZONE 'UTC' - INTERVAL '14 days';
+expired RECORD;
+dropped INTEGER := 0;
+deleted INTEGER;
+BEGIN
+    RAISE INFO '% Policies history purge starting. Entries older than 14 days will be deleted.', NOW();
+CALL createPoliciesHistoryPartitions(today, today + INTERVAL '7 days');
+FOR expired IN
+    SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+    WHERE i.inhparent = 'policies_history'::regclass AND c.relname ~ '^policies_history_[0-9]{8}$'
+      AND to_date(substring(c.relname FROM 18), 'YYYYMMDD')::timestamp + INTERVAL '1 day' <= retention_start
+LOOP
+    EXECUTE format('ALTER TABLE policies_history DETACH PARTITION %I', expired.relname);
+    EXECUTE format('DROP TABLE %I', expired.relname);
+    dropped := dropped + 1;
+END LOOP;
+DELETE FROM policies_history_default WHERE ctime < EXTRACT(EPOCH FROM retention_start) * 1000;
+GET DIAGNOSTICS deleted = ROW_COUNT;
+RAISE INFO '% Policies history purge ended. % partitions were dropped and % entries were deleted from the database.', NOW(), dropped, deleted;
+END;
+$$ LANGUAGE PLPGSQL;
@@ -0,0 +1,14 @@
+-- Ids of the host groups of a history entry. Hosts which are in no group get the nil UUID, so that users
+-- with host group restrictions can see them with the same && predicate as the grouped ones.
+CREATE FUNCTION policies_history_host_group_ids(host_groups JSONB) RETURNS UUID[] AS $$
+SELECT CASE
+    WHEN jsonb_array_length(host_groups) = 0 THEN ARRAY['00000000-0000-0000-0000-000000000000'::uuid]
+    ELSE ARRAY(SELECT CAST(host_group->>'id' AS uuid) FROM jsonb_array_elements(host_groups) AS host_group
+               WHERE host_group->>'id' ~* '^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$')
+END
+$$ LANGUAGE SQL IMMUTABLE STRICT;
+
+-- Serves `policies_history_host_group_ids(host_groups) && :hostGroupIds`, for any number of groups.
+-- The entries are still written by the engine as before, there is no column to maintain.
+DROP INDEX policies_history_host_groups_idx;
+CREATE INDEX policies_history_host_groups_idx ON policies_history USING gin (policies_history_host_group_ids(host_groups));
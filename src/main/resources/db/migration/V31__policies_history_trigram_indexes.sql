@@ -0,0 +1,6 @@
+-- Serve the case-insensitive substring searches of the trigger history, `LOWER(host_name) LIKE '%...%'`
+-- and the same on host_id, which no btree index can.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX ix_policies_history_host_name_trgm ON policies_history USING gin (LOWER(host_name) gin_trgm_ops);
+CREATE INDEX ix_policies_history_host_id_trgm ON policies_history USING gin (LOWER(host_id) gin_trgm_ops);
@@ -0,0 +1,75 @@
+-- Number of history entries of each policy, so that the trigger history doesn't need to count them.
+CREATE TABLE policy_trigger_stats (
+    org_id TEXT NOT NULL,
+    policy_id VARCHAR(255) NOT NULL,
+    trigger_count BIGINT NOT NULL,
+    first_ctime BIGINT NOT NULL,
+    last_ctime BIGINT NOT NULL,
+    CONSTRAINT pk_policy_trigger_stats PRIMARY KEY (org_id, policy_id)
+);
+
+-- Maintained on insert the same way as policy.last_triggered, purges are accounted for by cleanPoliciesHistory().
+CREATE FUNCTION policies_history_trigger_stats() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO policy_trigger_stats (org_id, policy_id, trigger_count, first_ctime, last_ctime)
+    VALUES (NEW.org_id, NEW.policy_id, 1, NEW.ctime, NEW.ctime)
+    ON CONFLICT (org_id, policy_id) DO UPDATE
+       SET trigger_count = policy_trigger_stats.trigger_count + 1,
+           first_ctime = LEAST(policy_trigger_stats.first_ctime, EXCLUDED.first_ctime),
+           last_ctime = GREATEST(policy_trigger_stats.last_ctime, EXCLUDED.last_ctime);
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
+
+-- The trigger locks out the inserts until this migration commits, none can be missed by the initial counts.
+CREATE TRIGGER trigger_policies_history_trigger_stats AFTER INSERT ON policies_history
+FOR EACH ROW EXECUTE FUNCTION policies_history_trigger_stats();
+
+INSERT INTO policy_trigger_stats (org_id, policy_id, trigger_count, first_ctime, last_ctime)
+SELECT org_id, policy_id, COUNT(*), MIN(ctime), MAX(ctime)
+FROM policies_history
+GROUP BY org_id, policy_id;
+
+-- Same as before, the purged entries are now also taken off the counts.
+-- This stored procedure creates the partitions of the next days and drops the ones past the retention.
+-- It is executed from an OpenShift CronJob.
+CREATE OR REPLACE PROCEDURE cleanPoliciesHistory() AS $$
+DECLARE
+today TIMESTAMP := date_trunc('day', NOW() AT TIME ZONE 'UTC');
+retention_start TIMESTAMP := NOW() AT TIME ZONE 'UTC' - INTERVAL '14 days';
+expired RECORD;
+dropped INTEGER := 0;
+deleted BIGINT;
+BEGIN
+    RAISE INFO '% Policies history purge starting. Entries older than 14 days will be deleted.', NOW();
+CALL createPoliciesHistoryPartitions(today, today + INTERVAL '7 days');
+FOR expired IN
+    SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+    WHERE i.inhparent = 'policies_history'::regclass AND c.relname ~ '^policies_history_[0-9]{8}$'
+      AND to_date(substring(c.relname FROM 18), 'YYYYMMDD')::timestamp + INTERVAL '1 day' <= retention_start
+LOOP
+    EXECUTE format('ALTER TABLE policies_history DETACH PARTITION %I', expired.relname);
+    EXECUTE format('UPDATE policy_trigger_stats AS s SET trigger_count = s.trigger_count - e.count '
+        || 'FROM (SELECT org_id, policy_id, COUNT(*) AS count FROM %I GROUP BY org_id, policy_id) AS e '
+        || 'WHERE s.org_id = e.org_id AND s.policy_id = e.policy_id', expired.relname);
+    EXECUTE format('DROP TABLE %I', expired.relname);
+    dropped := dropped + 1;
+END LOOP;
+WITH purged AS (
+    DELETE FROM policies_history_default WHERE ctime < EXTRACT(EPOCH FROM retention_start) * 1000
+    RETURNING org_id, policy_id
+), counts AS (
+    SELECT org_id, policy_id, COUNT(*) AS count FROM purged GROUP BY org_id, policy_id
+), updated AS (
+    UPDATE policy_trigger_stats AS s SET trigger_count = s.trigger_count - counts.count
+    FROM counts WHERE s.org_id = counts.org_id AND s.policy_id = counts.policy_id
+)
+SELECT COALESCE(SUM(count), 0) INTO deleted FROM counts;
+DELETE FROM policy_trigger_stats WHERE trigger_count <= 0;
+-- The first entries of these policies may have been purged, the index on the history finds the new ones
+UPDATE policy_trigger_stats AS s
+   SET first_ctime = (SELECT MIN(ctime) FROM policies_history AS h WHERE h.org_id = s.org_id AND h.policy_id = s.policy_id)
+   WHERE s.first_ctime < EXTRACT(EPOCH FROM retention_start) * 1000;
+RAISE INFO '% Policies history purge ended. % partitions were dropped and % entries were deleted from the database.', NOW(), dropped, deleted;
+END;
+$$ LANGUAGE PLPGSQL;
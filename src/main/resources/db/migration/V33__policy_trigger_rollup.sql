@@ -0,0 +1,44 @@
+-- Number of history entries of each policy per hour, so that the trigger histogram doesn't need to read the history.
+-- The entries are also split by host groups, for the users who can only see some of them.
+CREATE TABLE policy_trigger_rollup (
+    org_id TEXT NOT NULL,
+    policy_id VARCHAR(255) NOT NULL,
+    bucket_start BIGINT NOT NULL,
+    host_group_ids UUID[] NOT NULL,
+    trigger_count BIGINT NOT NULL,
+    CONSTRAINT pk_policy_trigger_rollup PRIMARY KEY (org_id, policy_id, bucket_start, host_group_ids)
+);
+
+-- Maintained on insert the same way as policy_trigger_stats, the host groups are the ones of the policies_history_host_groups_idx predicate.
+CREATE FUNCTION policies_history_trigger_rollup() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO policy_trigger_rollup (org_id, policy_id, bucket_start, host_group_ids, trigger_count)
+    VALUES (NEW.org_id, NEW.policy_id, NEW.ctime - NEW.ctime % 3600000,
+            COALESCE(policies_history_host_group_ids(NEW.host_groups), '{}'), 1)
+    ON CONFLICT (org_id, policy_id, bucket_start, host_group_ids) DO UPDATE
+       SET trigger_count = policy_trigger_rollup.trigger_count + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
+
+-- The trigger locks out the inserts until this migration commits, none can be missed by the initial counts.
+CREATE TRIGGER trigger_policies_history_trigger_rollup AFTER INSERT ON policies_history
+FOR EACH ROW EXECUTE FUNCTION policies_history_trigger_rollup();
+
+INSERT INTO policy_trigger_rollup (org_id, policy_id, bucket_start, host_group_ids, trigger_count)
+SELECT org_id, policy_id, ctime - ctime % 3600000, COALESCE(policies_history_host_group_ids(host_groups), '{}'), COUNT(*)
+FROM policies_history
+GROUP BY 1, 2, 3, 4;
+
+-- This stored procedure deletes the hours which are past the retention of the policies history.
+-- It is executed from an OpenShift CronJob.
+CREATE PROCEDURE cleanPolicyTriggerRollup() AS $$
+DECLARE
+deleted INTEGER;
+BEGIN
+    RAISE INFO '% Policy trigger rollup purge starting. Hours older than 14 days will be deleted.', NOW();
+DELETE FROM policy_trigger_rollup WHERE bucket_start + 3600000 <= EXTRACT(EPOCH FROM NOW() - INTERVAL '14 days') * 1000;
+GET DIAGNOSTICS deleted = ROW_COUNT;
+RAISE INFO '% Policy trigger rollup purge ended. % rows were deleted from the database.', NOW(), deleted;
+END;
+$$ LANGUAGE PLPGSQL;
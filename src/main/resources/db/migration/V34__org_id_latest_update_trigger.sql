@@ -0,0 +1,34 @@
+-- Bumped on every change of the policies of the org, used as the ETag of the policies list.
+ALTER TABLE org_id_latest_update ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+
+-- Marks the policies of the org as updated for the engine, in the transaction which changed them.
+-- The last trigger time is only changed by the policies history, it changes the version but the engine
+-- doesn't need to reload the policies for it.
+CREATE FUNCTION policy_org_id_latest_update() RETURNS TRIGGER AS $$
+DECLARE
+changed_org_id TEXT;
+triggered_only BOOLEAN := FALSE;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        changed_org_id := OLD.org_id;
+    ELSE
+        changed_org_id := NEW.org_id;
+        IF TG_OP = 'UPDATE' THEN
+            triggered_only := NEW.version = OLD.version;
+        END IF;
+    END IF;
+    INSERT INTO org_id_latest_update (org_id, latest, version)
+    VALUES (changed_org_id, clock_timestamp() AT TIME ZONE 'UTC', 1)
+    ON CONFLICT (org_id) DO UPDATE
+       SET latest = CASE WHEN triggered_only THEN org_id_latest_update.latest
+                         ELSE GREATEST(org_id_latest_update.latest, EXCLUDED.latest) END,
+           version = org_id_latest_update.version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
+
+-- Deferred to the commit, so that concurrent writers of an org only hold the lock of its row while they commit
+-- instead of for their whole transaction. Rolled back changes never mark the org.
+CREATE CONSTRAINT TRIGGER trigger_policy_org_id_latest_update AFTER INSERT OR UPDATE OR DELETE ON policy
+DEFERRABLE INITIALLY DEFERRED
+FOR EACH ROW EXECUTE FUNCTION policy_org_id_latest_update();
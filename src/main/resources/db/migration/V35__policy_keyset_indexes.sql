@@ -0,0 +1,6 @@
+-- Serve the cursor paging of the policies list (Policy.seekPoliciesForCustomer), which seeks and sorts by
+-- (sort column, id) within an org. Scanned backwards for the descending sorts.
+CREATE INDEX ix_policy_org_id_name_id ON policy (org_id, name, id);
+CREATE INDEX ix_policy_org_id_is_enabled_id ON policy (org_id, is_enabled, id);
+CREATE INDEX ix_policy_org_id_mtime_id ON policy (org_id, mtime, id);
+CREATE INDEX ix_policy_org_id_last_triggered_id ON policy (org_id, last_triggered, id);
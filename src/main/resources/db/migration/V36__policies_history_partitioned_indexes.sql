@@ -0,0 +1,9 @@
+-- Indexes of the former unpartitioned table which V29 dropped with it. Created on the partitioned table,
+-- so that they apply to every partition, including the ones created later on.
+CREATE INDEX ix_policies_history_tenant_id_policy_id ON policies_history (tenant_id, policy_id);
+
+-- ix_policies_history_org_id is not recreated: ix_policies_history_org_id_policy_id_ctime starts with
+-- org_id and serves the lookups by org_id alone.
+
+-- The primary key became (id, ctime) in V29, as the partition key has to be part of it. The entries are
+-- never looked up by their id alone, the id filter of the history always comes with the org and the policy.
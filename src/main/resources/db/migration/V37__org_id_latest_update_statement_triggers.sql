@@ -0,0 +1,56 @@
+-- Replaces the row trigger of V34, which wrote the org_id_latest_update row of the org once per changed policy,
+-- including for the last_triggered updates of the policies history. Each statement now writes the row of every
+-- org it changed once, whatever its number of rows, e.g. for a batch of policies or a bulk delete.
+DROP TRIGGER trigger_policy_org_id_latest_update ON policy;
+DROP FUNCTION policy_org_id_latest_update();
+
+-- The updates which leave the version unchanged only changed last_triggered, the engine doesn't need to reload
+-- the policies for them and the row is not written. The ETag of the policies list accounts for last_triggered
+-- by itself, see OrgIdLatestUpdateRepository.
+-- The orgs are written in order, so that concurrent statements over several orgs can't deadlock.
+CREATE FUNCTION policy_org_id_latest_update() RETURNS TRIGGER AS $$
+DECLARE
+changed_org_ids TEXT[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(DISTINCT org_id ORDER BY org_id) INTO changed_org_ids FROM new_policies;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(DISTINCT org_id ORDER BY org_id) INTO changed_org_ids FROM old_policies;
+    ELSE
+        SELECT array_agg(DISTINCT new_policies.org_id ORDER BY new_policies.org_id) INTO changed_org_ids
+        FROM new_policies JOIN old_policies ON old_policies.org_id = new_policies.org_id AND old_policies.id = new_policies.id
+        WHERE old_policies.version IS DISTINCT FROM new_policies.version;
+    END IF;
+    INSERT INTO org_id_latest_update (org_id, latest, version)
+    SELECT changed_org_id, clock_timestamp() AT TIME ZONE 'UTC', 1 FROM unnest(changed_org_ids) AS changed_org_id
+    ON CONFLICT (org_id) DO UPDATE
+       SET latest = GREATEST(org_id_latest_update.latest, EXCLUDED.latest),
+           version = org_id_latest_update.version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
+
+-- Transition tables can't be shared by the events of a single trigger, hence one trigger per event.
+-- The row of an org is locked from the end of the statement to the commit, the writes of the policies are
+-- each a single statement transaction.
+CREATE TRIGGER trigger_policy_org_id_latest_update_insert AFTER INSERT ON policy
+REFERENCING NEW TABLE AS new_policies
+FOR EACH STATEMENT EXECUTE FUNCTION policy_org_id_latest_update();
+
+CREATE TRIGGER trigger_policy_org_id_latest_update_update AFTER UPDATE ON policy
+REFERENCING OLD TABLE AS old_policies NEW TABLE AS new_policies
+FOR EACH STATEMENT EXECUTE FUNCTION policy_org_id_latest_update();
+
+CREATE TRIGGER trigger_policy_org_id_latest_update_delete AFTER DELETE ON policy
+REFERENCING OLD TABLE AS old_policies
+FOR EACH STATEMENT EXECUTE FUNCTION policy_org_id_latest_update();
+
+-- Same as V29, without rewriting the policy when the entry is not its latest trigger.
+CREATE OR REPLACE FUNCTION policies_history_last_triggered() RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE policy
+       SET last_triggered = NEW.ctime
+       WHERE id = uuid(NEW.policy_id) and org_id = NEW.org_id AND last_triggered < NEW.ctime;
+    RETURN NULL;
+END;
+$$ LANGUAGE PLPGSQL;
@@ -17,19 +17,32 @@
 package com.redhat.cloud.policies.app;
 
 import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.redhat.cloud.policies.app.model.Policy;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
 @QuarkusTest
 @QuarkusTestResource(TestLifecycleManager.class)
 @Tag("integration")
 class AdminServiceTest extends AbstractITest {
 
+    @Inject
+    EntityManager entityManager;
+
     @Test
     void testStatsSmoke() {
         given()
@@ -47,4 +60,81 @@ class AdminServiceTest extends AbstractITest {
             .then()
             .statusCode(200);
     }
+
+    @Test
+    void testPolicyChanges() {
+        String body = given()
+            .queryParam("since", "2000-01-01 00:00:00")
+            .when().get("/admin/policies/changes")
+            .then()
+            .statusCode(200)
+            .contentType("application/x-ndjson")
+            .extract().asString();
+
+        // The policies of the seed data, across orgs
+        assertTrue(body.lines().anyMatch(line -> line.contains("\"orgId\":\"org-id-1234\"")
+                && line.contains("\"id\":\"bd0ee2ec-eec0-44a6-8bb1-29c4179fc21c\"")));
+    }
+
+    @Test
+    void testPolicyChangesWithTombstone() {
+        UUID id = UUID.randomUUID();
+        Timestamp since = new Timestamp(System.currentTimeMillis() - 1000L);
+        QuarkusTransaction.requiringNew().run(() -> {
+            entityManager.createNativeQuery("INSERT INTO policy (id, org_id, name, conditions) VALUES (:id, 'tombstone-org-id', 'tombstone', 'cores = 2')")
+                    .setParameter("id", id)
+                    .executeUpdate();
+            Policy.deletePoliciesForCustomer(entityManager, "tombstone-org-id", List.of(id));
+        });
+
+        String body = given()
+            .queryParam("since", since.toString())
+            .when().get("/admin/policies/changes")
+            .then()
+            .statusCode(200)
+            .extract().asString();
+
+        assertTrue(body.lines().anyMatch(line -> line.contains("\"id\":\"" + id + "\"") && line.contains("\"deleted\":true")));
+        assertFalse(body.contains("\"name\":\"tombstone\""));
+    }
+
+    @Test
+    void testPolicyChangesCommittedLate() {
+        UUID id = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        // Committed after the engine got the changes up to now, with an earlier mtime
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("INSERT INTO policy (id, org_id, name, conditions, mtime) VALUES (:id, 'late-org-id', 'late', 'cores = 2', :mtime)")
+                        .setParameter("id", id)
+                        .setParameter("mtime", new Timestamp(now - 10_000L))
+                        .executeUpdate()
+        );
+
+        try {
+            String body = given()
+                .queryParam("since", new Timestamp(now).toString())
+                .when().get("/admin/policies/changes")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+            assertTrue(body.lines().anyMatch(line -> line.contains("\"id\":\"" + id + "\"")));
+        } finally {
+            QuarkusTransaction.requiringNew().run(() ->
+                    Policy.deletePoliciesForCustomer(entityManager, "late-org-id", List.of(id)));
+        }
+    }
+
+    @Test
+    void testPolicyChangesBadSince() {
+        given()
+            .queryParam("since", "yesterday")
+            .when().get("/admin/policies/changes")
+            .then()
+            .statusCode(400);
+        given()
+            .when().get("/admin/policies/changes")
+            .then()
+            .statusCode(400);
+    }
 }
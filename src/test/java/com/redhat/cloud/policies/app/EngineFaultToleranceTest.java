@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app;
+
+import com.redhat.cloud.policies.app.lightweight.LightweightEngine;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import io.restassured.response.ValidatableResponse;
+import io.smallrye.faulttolerance.api.CircuitBreakerMaintenance;
+import io.smallrye.faulttolerance.api.CircuitBreakerState;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.faulttolerance.exceptions.BulkheadException;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+class EngineFaultToleranceTest extends AbstractITest {
+
+    private static final String ENGINE_PATH = "/lightweight-engine/validate";
+    private static final String ENGINE_UNAVAILABLE = "Connection to backend-engine failed. Please retry later";
+
+    // requestVolumeThreshold of the circuit breaker of LightweightEngine
+    private static final int REQUEST_VOLUME_THRESHOLD = 10;
+    // value and waitingTaskQueue of the bulkhead of LightweightEngine
+    private static final int BULKHEAD = 20;
+    private static final int BULKHEAD_QUEUE = 50;
+
+    @Inject
+    CircuitBreakerMaintenance circuitBreakerMaintenance;
+
+    @Inject
+    @RestClient
+    LightweightEngine lightweightEngine;
+
+    @BeforeEach
+    void beforeEach() {
+        circuitBreakerMaintenance.reset(LightweightEngine.CIRCUIT_BREAKER);
+    }
+
+    @AfterEach
+    void afterEach() {
+        // Back to the engine of TestLifecycleManager, which accepts every condition
+        mockEngine(response().withStatusCode(200));
+        circuitBreakerMaintenance.reset(LightweightEngine.CIRCUIT_BREAKER);
+    }
+
+    @Test
+    void testCircuitBreakerOpensWhenTheEngineFails() {
+        mockEngine(response().withStatusCode(500));
+
+        for (int i = 0; i < REQUEST_VOLUME_THRESHOLD; i++) {
+            validate(randomCondition())
+                    .statusCode(400);
+        }
+        assertEquals(CircuitBreakerState.OPEN, circuitBreakerMaintenance.currentState(LightweightEngine.CIRCUIT_BREAKER));
+
+        String condition = randomCondition();
+        validate(condition)
+                .statusCode(400)
+                .body("msg", is(ENGINE_UNAVAILABLE));
+        // Rejected by the circuit breaker, the engine was not called
+        mockServer.verify(request().withPath(ENGINE_PATH).withBody(condition), VerificationTimes.never());
+    }
+
+    @Test
+    void testRejectedConditionsDoNotOpenTheCircuitBreaker() {
+        mockEngine(response().withStatusCode(400).withBody("{\"errorMsg\":\"Unknown key\"}"));
+
+        for (int i = 0; i < 2 * REQUEST_VOLUME_THRESHOLD; i++) {
+            validate(randomCondition())
+                    .statusCode(400)
+                    .body("msg", is("Validation failed: Unknown key"));
+        }
+        assertEquals(CircuitBreakerState.CLOSED, circuitBreakerMaintenance.currentState(LightweightEngine.CIRCUIT_BREAKER));
+
+        mockEngine(response().withStatusCode(200));
+        String condition = randomCondition();
+        validate(condition)
+                .statusCode(200);
+        mockServer.verify(request().withPath(ENGINE_PATH).withBody(condition), VerificationTimes.once());
+    }
+
+    @Test
+    void testBulkheadRejectsTheCallsAboveItsQueue() {
+        // Slow enough for all the calls to be in flight at the same time
+        mockEngine(response().withStatusCode(200).withDelay(TimeUnit.MILLISECONDS, 1000));
+
+        int calls = BULKHEAD + BULKHEAD_QUEUE + 10;
+        List<Uni<Throwable>> validations = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            validations.add(lightweightEngine.validateConditionAsync(randomCondition())
+                    .onItemOrFailure().transform((ignored, failure) -> failure));
+        }
+        List<Throwable> failures = Uni.join().all(validations).andFailFast()
+                .await().atMost(Duration.ofSeconds(30));
+
+        long rejected = failures.stream().filter(failure -> failure instanceof BulkheadException).count();
+        assertEquals(calls - BULKHEAD - BULKHEAD_QUEUE, rejected);
+        mockServer.verify(request().withPath(ENGINE_PATH), VerificationTimes.exactly(BULKHEAD + BULKHEAD_QUEUE));
+    }
+
+    private void mockEngine(HttpResponse engineResponse) {
+        mockServer.clear(request().withPath(ENGINE_PATH));
+        mockServer
+                .when(request().withPath(ENGINE_PATH))
+                .respond(engineResponse);
+    }
+
+    private ValidatableResponse validate(String condition) {
+        TestPolicy policy = new TestPolicy();
+        policy.name = UUID.randomUUID().toString();
+        policy.conditions = condition;
+        return given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(policy)
+                .when().post(API_BASE_V1_0 + "/policies/validate")
+                .then();
+    }
+
+    // The outcome of the engine is cached by condition, every call needs its own
+    private static String randomCondition() {
+        return "facts.arch = '" + UUID.randomUUID() + "'";
+    }
+}
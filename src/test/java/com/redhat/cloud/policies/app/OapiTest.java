@@ -76,7 +76,7 @@ class OapiTest extends AbstractITest {
         assertFalse(schemas.containsKey("SettingsValues"));
 
         // Check that openapi does not (again) collapse parameters
-        assertEquals(9, paths.get("/policies").getOperation("get").getParameters().size());
+        assertEquals(12, paths.get("/policies").getOperation("get").getParameters().size());
 
         // Check that all properties are present ( https://github.com/smallrye/smallrye-open-api/issues/437 )
         Map<String, Schema> policyProperties = schemas.get("Policy").getProperties();
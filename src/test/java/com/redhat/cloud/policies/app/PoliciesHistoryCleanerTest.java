@@ -12,9 +12,14 @@ import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
 @QuarkusTestResource(TestLifecycleManager.class)
@@ -40,12 +45,75 @@ class PoliciesHistoryCleanerTest {
         assertCount(1L);
     }
 
+    @Test
+    @TestTransaction
+    void testExpiredPartitionsAreDropped() {
+        Instant expired = Instant.now().minus(Duration.ofDays(30L));
+        String partition = "policies_history_" + DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC).format(expired);
+        session.createNativeQuery("CALL createPoliciesHistoryPartitions(CAST(:day AS timestamp), CAST(:day AS timestamp) + INTERVAL '1 day')")
+                .setParameter("day", LocalDateTime.ofInstant(expired, ZoneOffset.UTC))
+                .executeUpdate();
+        createPoliciesHistoryEntry(expired);
+        assertTrue(partitionExists(partition));
+
+        session.createNativeQuery("CALL cleanPoliciesHistory()").executeUpdate();
+
+        assertFalse(partitionExists(partition));
+        assertCount(0L);
+        // The partitions of the next days are created ahead of time
+        String nextWeek = "policies_history_" + DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC)
+                .format(Instant.now().plus(Duration.ofDays(6L)));
+        assertTrue(partitionExists(nextWeek));
+    }
+
+    @Test
+    @TestTransaction
+    void testPurgedEntriesAreTakenOffTheTriggerStats() {
+        String policyId = UUID.randomUUID().toString();
+        Instant expired = Instant.now().minus(Duration.ofDays(30L));
+        session.createNativeQuery("CALL createPoliciesHistoryPartitions(CAST(:day AS timestamp), CAST(:day AS timestamp) + INTERVAL '1 day')")
+                .setParameter("day", LocalDateTime.ofInstant(expired, ZoneOffset.UTC))
+                .executeUpdate();
+        Instant recent = Instant.now().minus(Duration.ofHours(1L));
+        // One entry in a dropped partition, one deleted from the default partition and one kept
+        createPoliciesHistoryEntry(policyId, expired);
+        createPoliciesHistoryEntry(policyId, Instant.now().minus(Duration.ofDays(28L)));
+        createPoliciesHistoryEntry(policyId, recent);
+        assertEquals(3L, getTriggerStats(policyId)[0]);
+
+        session.createNativeQuery("CALL cleanPoliciesHistory()").executeUpdate();
+
+        Object[] stats = getTriggerStats(policyId);
+        assertEquals(1L, stats[0]);
+        assertEquals(recent.toEpochMilli(), stats[1]);
+        assertEquals(recent.toEpochMilli(), stats[2]);
+    }
+
+    private Object[] getTriggerStats(String policyId) {
+        return (Object[]) session.createNativeQuery("SELECT trigger_count, first_ctime, last_ctime FROM policy_trigger_stats WHERE org_id = 'org-id' AND policy_id = :policyId")
+                .addScalar("trigger_count", Long.class)
+                .addScalar("first_ctime", Long.class)
+                .addScalar("last_ctime", Long.class)
+                .setParameter("policyId", policyId)
+                .getSingleResult();
+    }
+
+    private boolean partitionExists(String name) {
+        return session.createNativeQuery("SELECT to_regclass(:name) IS NOT NULL", Boolean.class)
+                .setParameter("name", name)
+                .getSingleResult();
+    }
+
     private void createPoliciesHistoryEntry(Instant ctime) {
+        createPoliciesHistoryEntry(UUID.randomUUID().toString(), ctime);
+    }
+
+    private void createPoliciesHistoryEntry(String policyId, Instant ctime) {
         PoliciesHistoryEntry historyEntry = new PoliciesHistoryEntry();
         historyEntry.setId(UUID.randomUUID());
         historyEntry.setTenantId("tenant-id");
         historyEntry.setOrgId("org-id");
-        historyEntry.setPolicyId(UUID.randomUUID().toString());
+        historyEntry.setPolicyId(policyId);
         historyEntry.setCtime(ctime.toEpochMilli());
         session.persist(historyEntry);
     }
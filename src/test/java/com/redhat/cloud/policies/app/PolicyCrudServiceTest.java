@@ -2,9 +2,11 @@ package com.redhat.cloud.policies.app;
 
 import com.redhat.cloud.policies.app.model.Policy;
 import com.redhat.cloud.policies.app.model.engine.HistoryItem;
+import com.redhat.cloud.policies.app.model.history.HistogramItem;
 import com.redhat.cloud.policies.app.model.history.PoliciesHistoryEntry;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.Header;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -16,12 +18,17 @@ import org.junit.jupiter.api.Test;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
 @QuarkusTestResource(TestLifecycleManager.class)
@@ -53,6 +60,10 @@ class PolicyCrudServiceTest extends AbstractITest {
         session.createQuery("DELETE FROM PoliciesHistoryEntry where policyId = :policyId")
                 .setParameter("policyId", policyId.toString())
                 .executeUpdate();
+
+        session.createNativeQuery("DELETE FROM policy_trigger_rollup WHERE policy_id = :policyId")
+                .setParameter("policyId", policyId.toString())
+                .executeUpdate();
     }
 
 
@@ -88,6 +99,41 @@ class PolicyCrudServiceTest extends AbstractITest {
         assertEquals(5, history.getJsonObject("meta").getInteger("count"));
     }
 
+    @Test
+    void testGetPolicyHistoryCursorLinks() {
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-1", "foo", 1L);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-2", "bar", 2L);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-3", "baz", 3L);
+
+        String responseBody = given()
+                .basePath(API_BASE_V1_0)
+                .header(authHeader)
+                .pathParam("id", policyId)
+                .queryParam("limit", 2)
+                .queryParam("cursor", "")
+                .when().get("/policies/{id}/history/trigger")
+                .then().statusCode(200)
+                .extract().asString();
+
+        JsonObject history = new JsonObject(responseBody);
+        assertEquals(2, history.getJsonArray("data").size());
+        String historyPath = API_BASE_V1_0 + "/policies/" + policyId + "/history/trigger";
+        assertEquals(historyPath + "?limit=2&cursor=", history.getJsonObject("links").getString("first"));
+        String next = history.getJsonObject("links").getString("next");
+        assertTrue(next.startsWith(historyPath + "?limit=2&cursor="), next);
+
+        responseBody = given()
+                .header(authHeader)
+                .when().get(next)
+                .then().statusCode(200)
+                .extract().asString();
+
+        history = new JsonObject(responseBody);
+        assertEquals(1, history.getJsonArray("data").size());
+        assertEquals("host-id-1", history.getJsonArray("data").getJsonObject(0).getString("id"));
+        assertNull(history.getJsonObject("links").getString("next"));
+    }
+
     @Test
     void testGetPolicyHistoryWithGroupRestrictions() {
         List<UUID> userHostGroups = new ArrayList<UUID>(); // from rbac_example_groups.json
@@ -124,6 +170,77 @@ class PolicyCrudServiceTest extends AbstractITest {
         assertEquals(3, history.getJsonObject("meta").getInteger("count"));
     }
 
+    @Test
+    void testGetPolicyHistogram() {
+        long hour = Duration.ofHours(1L).toMillis();
+        long day = Duration.ofDays(1L).toMillis();
+        long twoDaysAgo = Instant.now().truncatedTo(ChronoUnit.DAYS).minus(Duration.ofDays(2L)).toEpochMilli();
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-1", "foo", twoDaysAgo + 5 * 60_000L);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-2", "bar", twoDaysAgo + 50 * 60_000L);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-3", "baz", twoDaysAgo + hour);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-4", "qux", twoDaysAgo + day + hour);
+        // Past the range of the histogram
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-5", "old", 1L);
+
+        JsonArray hours = getHistogram(authHeader, "hour");
+        assertEquals(3, hours.size());
+        hours.getJsonObject(0).mapTo(HistogramItem.class);
+        assertHistogramItem(hours, 0, twoDaysAgo, 2);
+        assertHistogramItem(hours, 1, twoDaysAgo + hour, 1);
+        assertHistogramItem(hours, 2, twoDaysAgo + day + hour, 1);
+
+        JsonArray days = getHistogram(authHeader, "day");
+        assertEquals(2, days.size());
+        assertHistogramItem(days, 0, twoDaysAgo, 3);
+        assertHistogramItem(days, 1, twoDaysAgo + day, 1);
+
+        given()
+                .basePath(API_BASE_V1_0)
+                .header(authHeader)
+                .pathParam("id", policyId)
+                .queryParam("bucket", "week")
+                .when().get("/policies/{id}/history/histogram")
+                .then().statusCode(400);
+    }
+
+    @Test
+    void testGetPolicyHistogramWithGroupRestrictions() {
+        UUID group1 = UUID.fromString("78e3dc30-cec3-4b49-be2d-37482c74a9ac"); // from rbac_example_groups.json
+        UUID group2 = UUID.fromString("79e3dc30-cec3-4b49-be2d-37482c74a9ad");
+        UUID randomGroup = UUID.randomUUID();
+        long ctime = Instant.now().truncatedTo(ChronoUnit.DAYS).toEpochMilli();
+
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-1", "foo", List.of(group1), ctime);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-2", "fooBAR", List.of(group1, group2), ctime);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-3", "FoOoOo", List.of(randomGroup), ctime);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-4", " foo", ctime);
+        helper.createPoliciesHistoryEntry(TENANT_ID, ORG_ID, policyId, "host-id-5", "barFOO", List.of(randomGroup, group2), ctime);
+
+        JsonArray restricted = getHistogram(authHeaderHostGroups, "day");
+        assertEquals(1, restricted.size());
+        assertHistogramItem(restricted, 0, ctime, 4);
+
+        JsonArray unrestricted = getHistogram(authHeader, "day");
+        assertHistogramItem(unrestricted, 0, ctime, 5);
+    }
+
+    private JsonArray getHistogram(Header header, String bucket) {
+        String responseBody = given()
+                .basePath(API_BASE_V1_0)
+                .header(header)
+                .pathParam("id", policyId)
+                .queryParam("bucket", bucket)
+                .when().get("/policies/{id}/history/histogram")
+                .then().statusCode(200)
+                .extract().asString();
+        return new JsonArray(responseBody);
+    }
+
+    private static void assertHistogramItem(JsonArray histogram, int index, long start, long count) {
+        assertEquals(start, histogram.getJsonObject(index).getLong("start"));
+        assertEquals(count, histogram.getJsonObject(index).getLong("count"));
+    }
+
     @Transactional
     UUID createPolicy() {
 
@@ -22,14 +22,20 @@ import static org.hamcrest.CoreMatchers.is;
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
 
 import com.redhat.cloud.policies.app.model.history.PoliciesHistoryEntry;
 import com.redhat.cloud.policies.app.model.history.PoliciesHistoryRepository;
+import com.redhat.cloud.policies.app.model.pager.Page;
+import com.redhat.cloud.policies.app.model.pager.Pager;
 import io.quarkus.test.InjectMock;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
@@ -46,6 +52,7 @@ import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import jakarta.inject.Inject;
 import jakarta.json.Json;
 
@@ -60,6 +67,9 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.mockserver.matchers.TimeToLive;
+import org.mockserver.matchers.Times;
+import org.mockserver.verify.VerificationTimes;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
 
 @QuarkusTest
@@ -378,6 +388,36 @@ class RestApiTest extends AbstractITest {
         assertEquals(policiesInDb, jsonPath.getList("").size());
     }
 
+    @Test
+    void testGetPolicyIdsNdjson() {
+        Response response =
+                given()
+                        .header(authHeader)
+                        .accept("application/x-ndjson")
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/ids?filter[is_enabled]=true")
+                        .then()
+                        .statusCode(200)
+                        .contentType("application/x-ndjson")
+                        .extract().response();
+
+        List<String> lines = response.body().asString().lines().collect(Collectors.toList());
+        List<String> ids =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/ids?filter[is_enabled]=true")
+                        .then()
+                        .statusCode(200)
+                        .contentType(ContentType.JSON)
+                        .extract().body().jsonPath().getList("");
+
+        assertFalse(ids.isEmpty());
+        // Neither response is sorted
+        assertEquals(ids.stream().map(id -> "\"" + id + "\"").sorted().collect(Collectors.toList()),
+                lines.stream().sorted().collect(Collectors.toList()));
+    }
+
     @Test
     void testGetPoliciesPaged4() {
 
@@ -400,6 +440,156 @@ class RestApiTest extends AbstractITest {
         extractAndCheck(links, "last", 5, 10);
     }
 
+    @Test
+    void testGetPoliciesKeysetPaged() {
+        long policiesInDb = countPoliciesInDB();
+
+        for (String column : List.of("name", "is_enabled", "mtime", "last_triggered")) {
+            for (String direction : List.of("asc", "desc")) {
+                List<String> ids = new ArrayList<>();
+                String next = API_BASE_V1_0 + "/policies/?limit=3&cursor=&sortColumn=" + column + "&sortDirection=" + direction;
+                while (next != null) {
+                    JsonPath jsonPath =
+                            given()
+                                    .header(authHeader)
+                                    .when()
+                                    .get(next)
+                                    .then()
+                                    .statusCode(200)
+                                    .extract().body().jsonPath();
+
+                    assertEquals(policiesInDb, jsonPath.getInt("meta.count"));
+                    ids.addAll(jsonPath.getList("data.id"));
+                    Map<String, String> links = jsonPath.get("links");
+                    assertFalse(links.containsKey("last"));
+                    next = links.get("next");
+                }
+
+                assertEquals(policiesInDb, ids.size(), column + " " + direction);
+                assertEquals(policiesInDb, ids.stream().distinct().count(), column + " " + direction);
+            }
+        }
+    }
+
+    @Test
+    void testGetPoliciesKeysetPagedDescriptionNotSupported() {
+        given()
+                .header(authHeader)
+                .when()
+                .get(API_BASE_V1_0 + "/policies/?cursor=&sortColumn=description")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    void testGetPoliciesWithoutCount() {
+        long policiesInDb = countPoliciesInDB();
+
+        Response response =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/?limit=5&offset=5&count=none")
+                        .then()
+                        .statusCode(200)
+                        .extract().response();
+
+        assertNull(response.getHeader("TotalCount"));
+        JsonPath jsonPath = response.body().jsonPath();
+        assertEquals(5, jsonPath.getList("data").size());
+        assertNull(jsonPath.get("meta.count"));
+        Map<String, String> links = jsonPath.get("links");
+        assertFalse(links.containsKey("last"));
+        extractAndCheck(links, "first", 5, 0);
+        extractAndCheck(links, "prev", 5, 0);
+        if (policiesInDb > 10) {
+            extractAndCheck(links, "next", 5, 10);
+        } else {
+            assertFalse(links.containsKey("next"));
+        }
+    }
+
+    @Test
+    void testGetPoliciesEstimatedCount() {
+        Response response =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/?limit=5&count=estimate&filter[is_enabled]=true")
+                        .then()
+                        .statusCode(200)
+                        .extract().response();
+
+        // The planner never estimates less than one row
+        assertTrue(Long.parseLong(response.getHeader("TotalCount")) > 0);
+        assertTrue(response.body().jsonPath().getLong("meta.count") > 0);
+    }
+
+    @Test
+    void testGetPoliciesNotModified() {
+        String url = API_BASE_V1_0 + "/policies/?limit=5&sortColumn=name";
+        String etag =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(url)
+                        .then()
+                        .statusCode(200)
+                        .extract().header("ETag");
+        assertNotNull(etag);
+
+        // Same request, same ETag, and nothing changed in between
+        given()
+                .header(authHeader)
+                .header("If-None-Match", etag)
+                .when()
+                .get(url)
+                .then()
+                .statusCode(304);
+
+        // A different page of the same list has its own ETag
+        String otherEtag =
+                given()
+                        .header(authHeader)
+                        .header("If-None-Match", etag)
+                        .when()
+                        .get(url + "&offset=5")
+                        .then()
+                        .statusCode(200)
+                        .extract().header("ETag");
+        assertNotEquals(etag, otherEtag);
+
+        // Any change to the policies of the org invalidates the ETag
+        TestPolicy stored =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(batchPolicy("test-etag"))
+                        .queryParam("alsoStore", "true")
+                        .when().post(API_BASE_V1_0 + "/policies")
+                        .then()
+                        .statusCode(201)
+                        .extract().body().as(TestPolicy.class);
+        try {
+            String newEtag =
+                    given()
+                            .header(authHeader)
+                            .header("If-None-Match", etag)
+                            .when()
+                            .get(url)
+                            .then()
+                            .statusCode(200)
+                            .extract().header("ETag");
+            assertNotEquals(etag, newEtag);
+        } finally {
+            given()
+                    .header(authHeader)
+                    .when().delete(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(200);
+        }
+    }
+
     @Test
     void testGetPoliciesPaged5() {
 
@@ -535,6 +725,108 @@ class RestApiTest extends AbstractITest {
         extractAndCheck(links, "last", -1, 0);
     }
 
+    @Test
+    void testGetPoliciesWithNoLimitWithoutCount() {
+        Response response =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/?limit=-1&count=none")
+                        .then()
+                        .statusCode(200)
+                        .extract().response();
+
+        assertNull(response.getHeader("TotalCount"));
+        JsonPath jsonPath = response.body().jsonPath();
+        assertNull(jsonPath.get("meta.count"));
+        assertEquals(countPoliciesInDB(), jsonPath.getList("data").size());
+        Map<String, String> links = jsonPath.get("links");
+        extractAndCheck(links, "first", -1, 0);
+        extractAndCheck(links, "last", -1, 0);
+    }
+
+    @Test
+    void testGetPoliciesWithNoLimitNotFound() {
+        for (String count : List.of("exact", "estimate", "none")) {
+            given()
+                    .header(authHeader)
+                    .when()
+                    .get(API_BASE_V1_0 + "/policies/?limit=-1&filter[name]=no-such-policy&count=" + count)
+                    .then()
+                    .statusCode(404);
+        }
+    }
+
+    @Test
+    void testGetPoliciesWithFields() {
+        List<String> fields = List.of("id", "name", "isEnabled", "mtime", "lastTriggered");
+        JsonPath full =
+                given()
+                        .header(authHeader)
+                        .when()
+                        .get(API_BASE_V1_0 + "/policies/?limit=5&sortColumn=name")
+                        .then()
+                        .statusCode(200)
+                        .extract().body().jsonPath();
+
+        for (String query : List.of("", "&count=none", "&count=estimate", "&cursor=", "&limit=-1")) {
+            JsonPath sparse =
+                    given()
+                            .header(authHeader)
+                            .when()
+                            .get(API_BASE_V1_0 + "/policies/?limit=5&sortColumn=name&fields=id,name,is_enabled,mtime,last_triggered" + query)
+                            .then()
+                            .statusCode(200)
+                            .extract().body().jsonPath();
+
+            List<Map<String, Object>> data = sparse.getList("data");
+            for (int i = 0; i < 5; i++) {
+                assertEquals(fields, new ArrayList<>(data.get(i).keySet()), query);
+                for (String field : fields) {
+                    assertEquals(full.get("data[" + i + "]." + field).toString(), data.get(i).get(field).toString(), query);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testGetPoliciesWithFieldsKeysetPaged() {
+        int seen = 0;
+        String cursor = "";
+        do {
+            JsonPath jsonPath =
+                    given()
+                            .header(authHeader)
+                            .when()
+                            .get(API_BASE_V1_0 + "/policies/?limit=3&fields=description&sortColumn=name&cursor=" + cursor)
+                            .then()
+                            .statusCode(200)
+                            .extract().body().jsonPath();
+            List<Map<String, Object>> data = jsonPath.getList("data");
+            for (Map<String, Object> policy : data) {
+                // Sorting and seeking by name doesn't make it part of the response
+                assertEquals(List.of("description"), new ArrayList<>(policy.keySet()));
+            }
+            seen += data.size();
+            String next = jsonPath.get("links.next");
+            cursor = next == null ? null : next.substring(next.indexOf("cursor=") + "cursor=".length());
+        } while (cursor != null);
+
+        assertEquals(countPoliciesInDB(), seen);
+    }
+
+    @Test
+    void testGetPoliciesWithInvalidFields() {
+        for (String fields : List.of("customerid", "orgId", "version", "id,foo")) {
+            given()
+                    .header(authHeader)
+                    .when()
+                    .get(API_BASE_V1_0 + "/policies/?fields=" + fields)
+                    .then()
+                    .statusCode(400);
+        }
+    }
+
     @Test
     void testGetPoliciesInvalidSort() {
         given()
@@ -717,6 +1009,42 @@ class RestApiTest extends AbstractITest {
         assertEquals(10, cal.get(Calendar.HOUR));
     }
 
+    @Test
+    void testGetOnePolicyWithFields() {
+        String url = API_BASE_V1_0 + "/policies/bd0ee2ec-eec0-44a6-8bb1-29c4179fc21c?fields=name,conditions";
+        Response response =
+                given()
+                        .header(authHeader)
+                        .when().get(url)
+                        .then()
+                        .statusCode(200)
+                        .extract().response();
+
+        Map<String, Object> policy = response.body().jsonPath().getMap("");
+        assertEquals(Map.of("name", "1st policy", "conditions", "\"cores\" == 1"), policy);
+
+        given()
+                .header(authHeader)
+                .header("If-None-Match", response.getHeader("ETag"))
+                .when().get(url)
+                .then()
+                .statusCode(304);
+
+        // The whole policy is another representation, with another ETag
+        given()
+                .header(authHeader)
+                .header("If-None-Match", response.getHeader("ETag"))
+                .when().get(API_BASE_V1_0 + "/policies/bd0ee2ec-eec0-44a6-8bb1-29c4179fc21c")
+                .then()
+                .statusCode(200);
+
+        given()
+                .header(authHeader)
+                .when().get(API_BASE_V1_0 + "/policies/bd0ee2ec-eec0-44a6-8bb1-29c4179fc21c?fields=customerid")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void testGetOnePolicyNoAccess() {
         given()
@@ -1002,6 +1330,255 @@ class RestApiTest extends AbstractITest {
         }
     }
 
+    @Test
+    void storeNewPoliciesBatch() {
+        List<TestPolicy> policies = new ArrayList<>();
+        policies.add(batchPolicy("batch1"));
+        policies.add(batchPolicy("1st policy")); // already stored
+        policies.add(batchPolicy("batch2"));
+        policies.add(batchPolicy("batch1")); // already in the batch
+        TestPolicy noConditions = batchPolicy("batch3");
+        noConditions.conditions = null;
+        policies.add(noConditions);
+
+        JsonPath jsonPath =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(policies)
+                        .when().post(API_BASE_V1_0 + "/policies/batch")
+                        .then()
+                        .statusCode(200)
+                        .extract().body().jsonPath();
+
+        List<String> ids = new ArrayList<>();
+        try {
+            assertEquals(List.of(201, 409, 201, 409, 400), jsonPath.getList("status"));
+            ids.add(jsonPath.getString("[0].id"));
+            ids.add(jsonPath.getString("[2].id"));
+            assertNull(jsonPath.get("[1].id"));
+            assertEquals("Policy name is not unique", jsonPath.getString("[1].msg"));
+
+            JsonPath stored =
+                    given()
+                            .header(authHeader)
+                            .when().get(API_BASE_V1_0 + "/policies/" + ids.get(1))
+                            .then()
+                            .statusCode(200)
+                            .extract().body().jsonPath();
+            assertEquals("batch2", stored.getString("name"));
+            assertEquals("cores = 2", stored.getString("conditions"));
+        } finally {
+            given()
+                    .header(authHeader)
+                    .contentType(ContentType.JSON)
+                    .body(ids)
+                    .when().delete(API_BASE_V1_0 + "/policies/ids")
+                    .then()
+                    .statusCode(200);
+        }
+    }
+
+    @Test
+    void storeNewPoliciesBatchEmpty() {
+        given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(List.of())
+                .when().post(API_BASE_V1_0 + "/policies/batch")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    void storeNewPolicyWithExistingName() {
+        given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(batchPolicy("1st policy"))
+                .queryParam("alsoStore", "true")
+                .when().post(API_BASE_V1_0 + "/policies")
+                .then()
+                .statusCode(409)
+                .body("msg", is("Policy name is not unique"));
+    }
+
+    @Test
+    void updatePolicyWithExistingName() {
+        TestPolicy stored =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(batchPolicy("test-rename"))
+                        .queryParam("alsoStore", "true")
+                        .when().post(API_BASE_V1_0 + "/policies")
+                        .then()
+                        .statusCode(201)
+                        .extract().body().as(TestPolicy.class);
+
+        try {
+            stored.name = "1st policy";
+            given()
+                    .header(authHeader)
+                    .contentType(ContentType.JSON)
+                    .body(stored)
+                    .when().put(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(409)
+                    .body("msg", is("Policy name is not unique"));
+
+            stored.name = "test-renamed";
+            given()
+                    .header(authHeader)
+                    .contentType(ContentType.JSON)
+                    .body(stored)
+                    .when().put(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(200)
+                    .body("name", is("test-renamed"))
+                    .body("conditions", is("cores = 2"));
+        } finally {
+            given()
+                    .header(authHeader)
+                    .when().delete(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(200);
+        }
+    }
+
+    @Test
+    void storeNewPolicyRejectedByEngine() {
+        TestPolicy tp = batchPolicy(UUID.randomUUID().toString());
+        tp.conditions = "facts.arch = '" + UUID.randomUUID() + "'";
+        mockEngineRejection(tp.conditions);
+
+        given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(tp)
+                .queryParam("alsoStore", "true")
+                .when().post(API_BASE_V1_0 + "/policies")
+                .then()
+                .statusCode(400)
+                .body("msg", is("Validation failed: Unknown key"));
+
+        // Nothing was stored
+        given()
+                .header(authHeader)
+                .when().get(API_BASE_V1_0 + "/policies/?limit=-1&filter[name]=" + tp.name)
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    void updatePolicyRejectedByEngine() {
+        TestPolicy stored =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(batchPolicy("test-update-rejected"))
+                        .queryParam("alsoStore", "true")
+                        .when().post(API_BASE_V1_0 + "/policies")
+                        .then()
+                        .statusCode(201)
+                        .extract().body().as(TestPolicy.class);
+
+        try {
+            TestPolicy update = batchPolicy("test-update-rejected-renamed");
+            update.id = stored.id;
+            update.conditions = "facts.arch = '" + UUID.randomUUID() + "'";
+            mockEngineRejection(update.conditions);
+
+            given()
+                    .header(authHeader)
+                    .contentType(ContentType.JSON)
+                    .body(update)
+                    .when().put(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(400)
+                    .body("msg", is("Validation failed: Unknown key"));
+
+            // The stored policy is unchanged
+            given()
+                    .header(authHeader)
+                    .when().get(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(200)
+                    .body("name", is("test-update-rejected"))
+                    .body("conditions", is("cores = 2"));
+        } finally {
+            given()
+                    .header(authHeader)
+                    .when().delete(API_BASE_V1_0 + "/policies/" + stored.id)
+                    .then()
+                    .statusCode(200);
+        }
+    }
+
+    @Test
+    void updateUnknownPolicyDryRun() {
+        TestPolicy tp = batchPolicy("test-update-unknown");
+        tp.id = UUID.randomUUID();
+
+        given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(tp)
+                .queryParam("dry", true)
+                .when().put(API_BASE_V1_0 + "/policies/" + tp.id)
+                .then()
+                .statusCode(404);
+    }
+
+    // Only the given condition is rejected, the engine of TestLifecycleManager accepts the others
+    private void mockEngineRejection(String condition) {
+        mockServer
+                .when(request().withPath("/lightweight-engine/validate").withBody(condition),
+                        Times.once(), TimeToLive.unlimited(), 10)
+                .respond(response().withStatusCode(400).withBody("{\"errorMsg\":\"Unknown key\"}"));
+    }
+
+    @Test
+    void validateConditionsBatch() {
+        List<String> conditions = new ArrayList<>();
+        conditions.add("cores = 2");
+        conditions.add(null);
+        conditions.add("facts.arch = 'x86_64'");
+        conditions.add("cores = 2");
+
+        JsonPath jsonPath =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(conditions)
+                        .when().post(API_BASE_V1_0 + "/policies/validate/batch")
+                        .then()
+                        .statusCode(200)
+                        .extract().body().jsonPath();
+
+        assertEquals(List.of(200, 400, 200, 200), jsonPath.getList("status"));
+        assertEquals("No condition provided", jsonPath.getString("[1].msg"));
+    }
+
+    @Test
+    void validateConditionsBatchNoAuth() {
+        given()
+                .header(authRbacNoAccess)
+                .contentType(ContentType.JSON)
+                .body(List.of("cores = 2"))
+                .when().post(API_BASE_V1_0 + "/policies/validate/batch")
+                .then()
+                .statusCode(403);
+    }
+
+    private static TestPolicy batchPolicy(String name) {
+        TestPolicy tp = new TestPolicy();
+        tp.actions = "notification";
+        tp.conditions = "cores = 2";
+        tp.name = name;
+        return tp;
+    }
+
     @Test
     void storeNewPolicyWithLongName() {
         TestPolicy tp = new TestPolicy();
@@ -1308,6 +1885,70 @@ class RestApiTest extends AbstractITest {
         }
     }
 
+    @Test
+    void storeAndRevalidatePolicy() {
+        TestPolicy tp = new TestPolicy();
+        tp.actions = "notification";
+        tp.conditions = "cores = 2";
+        tp.name = "test-etag";
+        tp.isEnabled = false;
+
+        TestPolicy testPolicy =
+                given()
+                        .header(authHeader)
+                        .contentType(ContentType.JSON)
+                        .body(tp)
+                        .queryParam("alsoStore", "true")
+                        .when().post(API_BASE_V1_0 + "/policies")
+                        .then()
+                        .statusCode(201)
+                        .extract().body().as(TestPolicy.class);
+
+        try {
+            String etag =
+                    given()
+                            .header(authHeader)
+                            .when().get(API_BASE_V1_0 + "/policies/" + testPolicy.id)
+                            .then()
+                            .statusCode(200)
+                            .extract().header("ETag");
+            assertNotNull(etag);
+
+            given()
+                    .header(authHeader)
+                    .header("If-None-Match", etag)
+                    .when().get(API_BASE_V1_0 + "/policies/" + testPolicy.id)
+                    .then()
+                    .statusCode(304);
+
+            given()
+                    .header(authHeader)
+                    .contentType(ContentType.JSON)
+                    .queryParam("enabled", true)
+                    .when().post(API_BASE_V1_0 + "/policies/" + testPolicy.id + "/enabled")
+                    .then()
+                    .statusCode(200);
+
+            // The change bumped the version, so the full policy is sent again
+            String newEtag =
+                    given()
+                            .header(authHeader)
+                            .header("If-None-Match", etag)
+                            .when().get(API_BASE_V1_0 + "/policies/" + testPolicy.id)
+                            .then()
+                            .statusCode(200)
+                            .body("isEnabled", is(true))
+                            .extract().header("ETag");
+            assertNotEquals(etag, newEtag);
+        } finally {
+            given()
+                    .header(authHeader)
+                    .when().delete(API_BASE_V1_0 + "/policies/" + testPolicy.id)
+                    .then()
+                    .statusCode(200);
+        }
+    }
+
     // Check that update is protected by RBAC.
     // we need to store as user with access first.
     @Test
@@ -1431,6 +2072,26 @@ class RestApiTest extends AbstractITest {
         ;
     }
 
+    @Test
+    void validateMalformedConditionLocally() {
+        TestPolicy tp = new TestPolicy();
+        tp.conditions = "cores = = 2";
+        tp.name = UUID.randomUUID().toString();
+
+        String body = given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(tp)
+                .when().post(API_BASE_V1_0 + "/policies/validate")
+                .then()
+                .statusCode(400)
+                .extract().body().asString();
+
+        assertTrue(body.contains("Expected a value at position 9"));
+        // Rejected without asking the engine
+        mockServer.verify(request().withPath("/lightweight-engine/validate").withBody("cores = = 2"), VerificationTimes.never());
+    }
+
     @Test
     void validateNewEmptyPolicy() {
 
@@ -1636,9 +2297,15 @@ class RestApiTest extends AbstractITest {
                         .statusCode(200)
                         .extract().body().jsonPath();
 
+        // Only the policy that existed was deleted
         List<String> list = jsonPath.getList("");
-        assertEquals(3, list.size());
-        assertTrue(list.contains("cd6cceb8-65dd-4988-a566-251fd20d7e2c"));
+        assertEquals(List.of("cd6cceb8-65dd-4988-a566-251fd20d7e2c"), list);
+
+        given()
+                .header(authHeader)
+                .when().get(API_BASE_V1_0 + "/policies/cd6cceb8-65dd-4988-a566-251fd20d7e2c")
+                .then()
+                .statusCode(404);
     }
 
     @Test
@@ -1684,41 +2351,31 @@ class RestApiTest extends AbstractITest {
     void enableDisablePolicies() {
         List<UUID> uuids = new ArrayList<>();
         uuids.add(UUID.randomUUID());
-        uuids.add(UUID.fromString("9b3b4429-1393-4120-95da-54c17a512367")); // known one
+        uuids.add(UUID.fromString("9b3b4429-1393-4120-95da-54c17a512367")); // known one, enabled
         uuids.add(UUID.randomUUID());
 
-        JsonPath jsonPath =
-                given()
-                        .header(authHeader)
-                        .contentType(ContentType.JSON)
-                        .body(uuids)
-                        .when()
-                        .queryParam("enabled", true)
-                        .post(API_BASE_V1_0 + "/policies/ids/enabled")
-                        .then()
-                        .statusCode(200)
-                        .extract().body().jsonPath();
-
-        List<String> list = jsonPath.getList("");
-        assertEquals(1, list.size());
-        assertTrue(list.contains("9b3b4429-1393-4120-95da-54c17a512367"));
+        List<String> list = setEnabledState(uuids, false);
+        assertEquals(List.of("9b3b4429-1393-4120-95da-54c17a512367"), list);
 
-        jsonPath =
-                given()
-                        .header(authHeader)
-                        .contentType(ContentType.JSON)
-                        .body(uuids)
-                        .when()
-                        .queryParam("enabled", false)
-                        .post(API_BASE_V1_0 + "/policies/ids/enabled")
-                        .then()
-                        .statusCode(200)
-                        .extract().body().jsonPath();
+        // Already disabled, nothing gets rewritten
+        list = setEnabledState(uuids, false);
+        assertTrue(list.isEmpty());
 
-        list = jsonPath.getList("");
-        assertEquals(1, list.size());
-        assertTrue(list.contains("9b3b4429-1393-4120-95da-54c17a512367"));
+        list = setEnabledState(uuids, true);
+        assertEquals(List.of("9b3b4429-1393-4120-95da-54c17a512367"), list);
+    }
 
+    private List<String> setEnabledState(List<UUID> uuids, boolean enabled) {
+        return given()
+                .header(authHeader)
+                .contentType(ContentType.JSON)
+                .body(uuids)
+                .when()
+                .queryParam("enabled", enabled)
+                .post(API_BASE_V1_0 + "/policies/ids/enabled")
+                .then()
+                .statusCode(200)
+                .extract().body().jsonPath().getList("");
     }
 
     @Test
@@ -1878,8 +2535,8 @@ class RestApiTest extends AbstractITest {
             entry.setHostName(hostName);
             entries.add(entry);
         }
-        when(policiesHistoryRepository.count(eq(orgId), eq(null), eq(POLICY_ID), any())).thenReturn((long) entries.size());
-        when(policiesHistoryRepository.find(eq(orgId), eq(null), eq(POLICY_ID), any())).thenReturn(entries);
+        when(policiesHistoryRepository.findWithCount(eq(orgId), eq(null), eq(POLICY_ID), any()))
+                .thenAnswer(invocation -> new Page<>(entries, invocation.getArgument(3, Pager.class), entries.size()));
     }
 
     private void mockPoliciesHistory(String hostId, String hostName, int count, List<UUID> userHostGroups) {
@@ -1900,7 +2557,7 @@ class RestApiTest extends AbstractITest {
             }
             entries.add(entry);
         }
-        when(policiesHistoryRepository.count(eq(orgId), eq(userHostGroups), eq(POLICY_ID), any())).thenReturn((long) entries.size());
-        when(policiesHistoryRepository.find(eq(orgId), eq(userHostGroups), eq(POLICY_ID), any())).thenReturn(entries);
+        when(policiesHistoryRepository.findWithCount(eq(orgId), eq(userHostGroups), eq(POLICY_ID), any()))
+                .thenAnswer(invocation -> new Page<>(entries, invocation.getArgument(3, Pager.class), entries.size()));
     }
 }
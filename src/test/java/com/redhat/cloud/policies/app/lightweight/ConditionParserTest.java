@@ -0,0 +1,84 @@
+package com.redhat.cloud.policies.app.lightweight;
+
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConditionParserTest {
+
+    private static final Set<String> FACTS = Set.of("arch", "facts.ansible", "number_of_cpus");
+
+    @Test
+    void verdictsMatchEngine() throws IOException {
+        List<String> mismatches = new ArrayList<>();
+        int checked = 0;
+        for (String line : readCorpus()) {
+            String[] parts = line.split("\t", 2);
+            boolean engineVerdict = parts[0].equals("VALID");
+            String condition = parts.length > 1 ? parts[1] : "";
+
+            boolean parserVerdict;
+            try {
+                ConditionParser.parse(condition, null);
+                parserVerdict = true;
+            } catch (ValidationException e) {
+                parserVerdict = false;
+            }
+            if (parserVerdict != engineVerdict) {
+                mismatches.add(parts[0] + " [" + condition + "]");
+            }
+            checked++;
+        }
+        assertTrue(checked > 0);
+        assertEquals(List.of(), mismatches);
+    }
+
+    @Test
+    void errorPointsAtProblem() {
+        ValidationException e = assertThrows(ValidationException.class, () -> ConditionParser.parse("cores => 2", null));
+        assertEquals("Validation failed: Unknown operator '=>' at position 7 of [cores => 2]", e.getMessage());
+
+        e = assertThrows(ValidationException.class, () -> ConditionParser.parse("(cores = 2", null));
+        assertEquals("Validation failed: Expected ')' at the end of [(cores = 2]", e.getMessage());
+    }
+
+    @Test
+    void checksFacts() {
+        assertDoesNotThrow(() -> ConditionParser.parse("facts.arch = 'x86_64' AND number_of_cpus > 2", ConditionParserTest::isKnownFact));
+        ValidationException e = assertThrows(ValidationException.class,
+                () -> ConditionParser.parse("facts.arch = 'x86_64' AND nope > 2", ConditionParserTest::isKnownFact));
+        assertEquals("Validation failed: Unknown fact 'nope' at position 27 of [facts.arch = 'x86_64' AND nope > 2]", e.getMessage());
+    }
+
+    private static boolean isKnownFact(String key) {
+        return FACTS.contains(key) || FACTS.contains(key.replace("facts.", ""));
+    }
+
+    private static List<String> readCorpus() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Objects.requireNonNull(ConditionParserTest.class.getResourceAsStream("/conditions-corpus.txt")),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
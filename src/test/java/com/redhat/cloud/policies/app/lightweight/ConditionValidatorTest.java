@@ -0,0 +1,23 @@
+package com.redhat.cloud.policies.app.lightweight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class ConditionValidatorTest {
+
+    @Test
+    void normalizeCollapsesWhitespace() {
+        assertEquals("facts.arch = 'x86_64'", ConditionValidator.normalize("  facts.arch   =\t'x86_64'\n"));
+        assertEquals("\"cores\" == 1 AND \"os\" == \"rhel\"",
+                ConditionValidator.normalize("\"cores\" ==  1\n  AND \"os\" == \"rhel\""));
+    }
+
+    @Test
+    void normalizeKeepsQuotedWhitespace() {
+        assertEquals("facts.name = 'a  b'", ConditionValidator.normalize("facts.name  =  'a  b'"));
+        assertEquals("facts.name = \"it's  here\"", ConditionValidator.normalize("facts.name = \"it's  here\""));
+        assertNotEquals(ConditionValidator.normalize("facts.name = 'a b'"), ConditionValidator.normalize("facts.name = 'a  b'"));
+    }
+}
@@ -0,0 +1,279 @@
+package com.redhat.cloud.policies.app.lightweight;
+
+import com.redhat.cloud.policies.app.TestLifecycleManager;
+import io.quarkus.logging.Log;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+class OrgIdLatestUpdateTriggerTest {
+
+    private static final String ORG_ID = "latest-update-test-org-id";
+    private static final String ROLLED_BACK_ORG_ID = "latest-update-test-rolled-back-org-id";
+    private static final List<String> TRIGGERS = List.of(
+            "trigger_policy_org_id_latest_update_insert",
+            "trigger_policy_org_id_latest_update_update",
+            "trigger_policy_org_id_latest_update_delete"
+    );
+
+    private static final int WRITERS = 8;
+    private static final long BENCHMARK_SECONDS = 5;
+
+    @Inject
+    OrgIdLatestUpdateRepository orgIdLatestUpdateRepository;
+
+    @Inject
+    EntityManager entityManager;
+
+    @AfterEach
+    void afterEach() {
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (String table : List.of("policies_history", "policy_trigger_stats", "policy_trigger_rollup", "policy", "org_id_latest_update")) {
+                entityManager.createNativeQuery("DELETE FROM " + table + " WHERE org_id IN (:orgIds)")
+                        .setParameter("orgIds", List.of(ORG_ID, ROLLED_BACK_ORG_ID))
+                        .executeUpdate();
+            }
+        });
+    }
+
+    @Test
+    void writtenWhenCommitted() {
+        UUID policyId = UUID.randomUUID();
+        QuarkusTransaction.requiringNew().run(() -> {
+            insertPolicy(ORG_ID, policyId, "written");
+            // Written by the statement, within its transaction
+            assertNotNull(getLatest(ORG_ID));
+        });
+
+        assertNotNull(getLatest(ORG_ID));
+        assertEquals(1L, getVersion(ORG_ID));
+        String policiesVersion = orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID);
+
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("DELETE FROM policy WHERE org_id = :orgId AND id = :id")
+                        .setParameter("orgId", ORG_ID)
+                        .setParameter("id", policyId)
+                        .executeUpdate()
+        );
+        assertEquals(2L, getVersion(ORG_ID));
+        assertNotEquals(policiesVersion, orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID));
+    }
+
+    @Test
+    void notWrittenWhenRolledBack() {
+        QuarkusTransaction.requiringNew().run(() -> {
+            insertPolicy(ROLLED_BACK_ORG_ID, UUID.randomUUID(), "rolled back");
+            QuarkusTransaction.setRollbackOnly();
+        });
+
+        assertNull(getLatest(ROLLED_BACK_ORG_ID));
+        assertEquals("0-0", orgIdLatestUpdateRepository.getPoliciesVersion(ROLLED_BACK_ORG_ID));
+    }
+
+    @Test
+    void writtenOncePerStatement() {
+        // What POST /policies/batch does, all the policies in one statement
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("INSERT INTO policy (id, org_id, name, conditions) " +
+                                "SELECT gen_random_uuid(), :orgId, 'batch ' || n, 'cores = 2' FROM generate_series(1, 100) AS n")
+                        .setParameter("orgId", ORG_ID)
+                        .executeUpdate()
+        );
+        assertEquals(1L, getVersion(ORG_ID));
+
+        // What the bulk enable does
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("UPDATE policy SET is_enabled = false, version = version + 1 WHERE org_id = :orgId")
+                        .setParameter("orgId", ORG_ID)
+                        .executeUpdate()
+        );
+        assertEquals(2L, getVersion(ORG_ID));
+    }
+
+    @Test
+    void triggersDoNotWriteTheRow() {
+        UUID policyId = UUID.randomUUID();
+        QuarkusTransaction.requiringNew().run(() -> insertPolicy(ORG_ID, policyId, "triggered"));
+        Object latest = getLatest(ORG_ID);
+        String policiesVersion = orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID);
+
+        // The engine doesn't need to reload the policy when it fires
+        QuarkusTransaction.requiringNew().run(() -> insertHistoryEntry(policyId, 42L));
+
+        assertEquals(latest, getLatest(ORG_ID));
+        assertEquals(1L, getVersion(ORG_ID));
+        // The ETag of the list still changes, the policy has a new last trigger time
+        assertNotEquals(policiesVersion, orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID));
+
+        // An older entry doesn't change the policy
+        policiesVersion = orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID);
+        QuarkusTransaction.requiringNew().run(() -> insertHistoryEntry(policyId, 41L));
+        assertEquals(policiesVersion, orgIdLatestUpdateRepository.getPoliciesVersion(ORG_ID));
+    }
+
+    /*
+     * Throughput of parallel writers of a single org, each updating its own policy, when the latest update is
+     * written by each write transaction as before, and when it is written by the statement triggers.
+     * Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void parallelWritersOfOneOrg() throws InterruptedException {
+        List<UUID> policyIds = insertPolicies();
+
+        Consumer<UUID> update = policyId ->
+                entityManager.createNativeQuery("UPDATE policy SET mtime = now(), version = version + 1 WHERE org_id = :orgId AND id = :id")
+                        .setParameter("orgId", ORG_ID)
+                        .setParameter("id", policyId)
+                        .executeUpdate();
+
+        setTriggersEnabled(false);
+        long inTransaction;
+        try {
+            inTransaction = run(policyIds, update.andThen(policyId -> setLatestToNow(ORG_ID)));
+        } finally {
+            setTriggersEnabled(true);
+        }
+        long triggered = run(policyIds, update);
+
+        Log.infof("%d writers of one org: %d writes/s with the latest update in the transaction, %d writes/s with the statement triggers",
+                WRITERS, inTransaction / BENCHMARK_SECONDS, triggered / BENCHMARK_SECONDS);
+        assertTrue(triggered > 0);
+        assertNotNull(getLatest(ORG_ID));
+    }
+
+    /*
+     * Throughput of parallel history inserts of a single org, the highest volume write path of the engine, each
+     * of them updating the last trigger time of its policy. The latest update of the org must not slow them down.
+     * Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void parallelHistoryInsertsOfOneOrg() throws InterruptedException {
+        List<UUID> policyIds = insertPolicies();
+        long version = getVersion(ORG_ID);
+
+        Consumer<UUID> insert = policyId -> insertHistoryEntry(policyId, System.currentTimeMillis());
+
+        setTriggersEnabled(false);
+        long withoutTriggers;
+        try {
+            withoutTriggers = run(policyIds, insert);
+        } finally {
+            setTriggersEnabled(true);
+        }
+        long withTriggers = run(policyIds, insert);
+
+        Log.infof("%d history writers of one org: %d inserts/s without the latest update triggers, %d inserts/s with them",
+                WRITERS, withoutTriggers / BENCHMARK_SECONDS, withTriggers / BENCHMARK_SECONDS);
+        assertTrue(withTriggers > 0);
+        // None of the inserts wrote the row of the org
+        assertEquals(version, getVersion(ORG_ID));
+    }
+
+    private List<UUID> insertPolicies() {
+        List<UUID> policyIds = new ArrayList<>();
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (int i = 0; i < WRITERS; i++) {
+                UUID id = UUID.randomUUID();
+                insertPolicy(ORG_ID, id, "benchmark " + i);
+                policyIds.add(id);
+            }
+        });
+        return policyIds;
+    }
+
+    private long run(List<UUID> policyIds, Consumer<UUID> write) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong writes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        for (UUID policyId : policyIds) {
+            executor.submit(() -> {
+                while (running.get()) {
+                    QuarkusTransaction.requiringNew().run(() -> write.accept(policyId));
+                    writes.incrementAndGet();
+                }
+            });
+        }
+        TimeUnit.SECONDS.sleep(BENCHMARK_SECONDS);
+        running.set(false);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        return writes.get();
+    }
+
+    private void setTriggersEnabled(boolean enabled) {
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (String trigger : TRIGGERS) {
+                entityManager.createNativeQuery("ALTER TABLE policy " + (enabled ? "ENABLE" : "DISABLE") + " TRIGGER " + trigger)
+                        .executeUpdate();
+            }
+        });
+    }
+
+    // How the latest update was written by the application before the triggers
+    private void setLatestToNow(String orgId) {
+        entityManager.createNativeQuery("INSERT INTO org_id_latest_update (org_id, latest, version) SELECT :orgId, :latest, 1 " +
+                        "ON CONFLICT (org_id) DO UPDATE SET latest = GREATEST(org_id_latest_update.latest, EXCLUDED.latest), " +
+                        "version = org_id_latest_update.version + 1")
+                .setParameter("orgId", orgId)
+                .setParameter("latest", LocalDateTime.now(UTC))
+                .executeUpdate();
+    }
+
+    private void insertPolicy(String orgId, UUID id, String name) {
+        entityManager.createNativeQuery("INSERT INTO policy (id, org_id, name, conditions) VALUES (:id, :orgId, :name, 'cores = 2')")
+                .setParameter("id", id)
+                .setParameter("orgId", orgId)
+                .setParameter("name", name)
+                .executeUpdate();
+    }
+
+    private void insertHistoryEntry(UUID policyId, long ctime) {
+        entityManager.createNativeQuery("INSERT INTO policies_history (id, org_id, policy_id, ctime) VALUES (:id, :orgId, :policyId, :ctime)")
+                .setParameter("id", UUID.randomUUID())
+                .setParameter("orgId", ORG_ID)
+                .setParameter("policyId", policyId.toString())
+                .setParameter("ctime", ctime)
+                .executeUpdate();
+    }
+
+    private Object getLatest(String orgId) {
+        List<?> latest = entityManager.createNativeQuery("SELECT latest FROM org_id_latest_update WHERE org_id = :orgId")
+                .setParameter("orgId", orgId)
+                .getResultList();
+        return latest.isEmpty() ? null : latest.get(0);
+    }
+
+    private long getVersion(String orgId) {
+        List<?> version = entityManager.createNativeQuery("SELECT version FROM org_id_latest_update WHERE org_id = :orgId", Long.class)
+                .setParameter("orgId", orgId)
+                .getResultList();
+        return version.isEmpty() ? 0L : (Long) version.get(0);
+    }
+}
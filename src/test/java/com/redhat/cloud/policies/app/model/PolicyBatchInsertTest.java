@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app.model;
+
+import com.redhat.cloud.policies.app.TestLifecycleManager;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+class PolicyBatchInsertTest {
+
+    private static final String ORG_ID = "batch-insert-test-org-id";
+
+    @Inject
+    EntityManager entityManager;
+
+    @AfterEach
+    void afterEach() {
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("DELETE FROM policy WHERE org_id = :orgId")
+                        .setParameter("orgId", ORG_ID)
+                        .executeUpdate()
+        );
+        QuarkusTransaction.requiringNew().run(() ->
+                entityManager.createNativeQuery("DELETE FROM org_id_latest_update WHERE org_id = :orgId")
+                        .setParameter("orgId", ORG_ID)
+                        .executeUpdate()
+        );
+    }
+
+    @Test
+    void testNameTakenBeforeTheInsertIsReportedPerItem() {
+        // Stored between the name check of the batch and its insert
+        Policy concurrent = policy("taken");
+        QuarkusTransaction.requiringNew().run(() -> assertTrue(Policy.insertIfNameIsUnique(entityManager, concurrent)));
+
+        Policy first = policy("first");
+        Policy taken = policy("taken");
+        Policy second = policy("second");
+        Set<UUID> inserted = QuarkusTransaction.requiringNew().call(() ->
+                Policy.insertIfNamesAreUnique(entityManager, List.of(first, taken, second)));
+
+        assertEquals(Set.of(first.id, second.id), inserted);
+
+        Policy stored = Policy.findById(ORG_ID, second.id);
+        assertEquals("second", stored.name);
+        assertEquals("cores = 2", stored.conditions);
+        assertEquals(concurrent.id, Policy.findByName(ORG_ID, "taken").id);
+    }
+
+    @Test
+    void testEmptyBatch() {
+        assertTrue(Policy.insertIfNamesAreUnique(entityManager, List.of()).isEmpty());
+    }
+
+    private static Policy policy(String name) {
+        Policy policy = new Policy();
+        policy.id = UUID.randomUUID();
+        policy.customerid = "batch-insert-test-account";
+        policy.orgId = ORG_ID;
+        policy.name = name;
+        policy.description = "Batch insert test";
+        policy.isEnabled = true;
+        policy.conditions = "cores = 2";
+        policy.actions = "notification";
+        return policy;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redhat.cloud.policies.app.model;
+
+import com.redhat.cloud.policies.app.TestLifecycleManager;
+import com.redhat.cloud.policies.app.model.filter.Filter;
+import com.redhat.cloud.policies.app.model.pager.Page;
+import com.redhat.cloud.policies.app.model.pager.Pager;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.BOOLEAN_IS;
+import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.EQUAL;
+import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.ILIKE;
+import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.LIKE;
+import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.NOT_EQUAL;
+import static io.quarkus.panache.common.Sort.Direction.Ascending;
+import static io.quarkus.panache.common.Sort.Direction.Descending;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+class PolicyPagingTest {
+
+    private static final String ORG_ID = "org-id-1234";
+
+    @Inject
+    EntityManager entityManager;
+
+    @Test
+    @Transactional
+    void testWindowCountMatchesSeparateCount() {
+        List<Consumer<Pager.PagerBuilder>> filters = List.of(
+            builder -> { },
+            builder -> builder.filter("name", EQUAL, "1st policy"),
+            builder -> builder.filter("name", NOT_EQUAL, "1st policy"),
+            builder -> builder.filter("name", LIKE, "%policy"),
+            builder -> builder.filter("name", ILIKE, "%POLICY%"),
+            builder -> builder.filter("description", ILIKE, "%test%"),
+            builder -> builder.filter("isEnabled", BOOLEAN_IS, "true"),
+            builder -> builder.filter("isEnabled", BOOLEAN_IS, "false"),
+            builder -> builder.filter("name", ILIKE, "%policy%").filter("isEnabled", BOOLEAN_IS, "true"),
+            builder -> builder.filter("name", EQUAL, "no such policy")
+        );
+        List<Consumer<Pager.PagerBuilder>> sorts = List.of(
+            builder -> { },
+            builder -> builder.addSort("name", Ascending),
+            builder -> builder.addSort("name", Descending),
+            builder -> builder.addSort("description", Ascending),
+            builder -> builder.addSort("isEnabled", Descending),
+            builder -> builder.addSort("mtime", Ascending),
+            builder -> builder.addSort("lastTriggered", Descending),
+            builder -> builder.addSort("isEnabled", Ascending).addSort("name", Descending)
+        );
+
+        for (Consumer<Pager.PagerBuilder> filter : filters) {
+            for (Consumer<Pager.PagerBuilder> sort : sorts) {
+                // Every page of size 3, including pages past the end, and then everything at once.
+                for (int offset = 0; offset <= 15; offset += 3) {
+                    assertWindowCountMatches(filter, sort, Pager.builder().itemsPerPage(3).page(offset));
+                }
+                assertWindowCountMatches(filter, sort, Pager.builder().itemsPerPage(Pager.NO_LIMIT));
+            }
+        }
+    }
+
+    private void assertWindowCountMatches(Consumer<Pager.PagerBuilder> filter, Consumer<Pager.PagerBuilder> sort,
+                                          Pager.PagerBuilder builder) {
+        filter.accept(builder);
+        sort.accept(builder);
+        Pager pager = builder.build();
+
+        Page<Policy> expected = Policy.pageWithSeparateCount(orgFilter(pager), pager);
+        Page<Policy> actual = Policy.pageWithWindowCount(entityManager, orgFilter(pager), pager);
+
+        String context = String.format("filter=%s, offset=%d, limit=%d", pager.getFilter().getQuery(),
+                pager.getOffset(), pager.getLimit());
+        assertEquals(expected.getTotalCount(), actual.getTotalCount(), context);
+        assertEquals(ids(expected), ids(actual), context);
+    }
+
+    private static Filter orgFilter(Pager pager) {
+        return new Filter(pager.getFilter()).and("orgId", EQUAL, ORG_ID);
+    }
+
+    private static List<UUID> ids(Page<Policy> page) {
+        return page.stream().map(policy -> policy.id).collect(Collectors.toList());
+    }
+}
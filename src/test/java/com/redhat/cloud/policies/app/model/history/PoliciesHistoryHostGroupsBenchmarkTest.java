@@ -0,0 +1,123 @@
+package com.redhat.cloud.policies.app.model.history;
+
+import com.redhat.cloud.policies.app.TestLifecycleManager;
+import com.redhat.cloud.policies.app.model.pager.Pager;
+import io.quarkus.logging.Log;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import jakarta.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Trigger history lookups of users with host group restrictions, over a million entries of one policy.
+ * The former query, with one @> arm per group, is timed along for comparison with the jsonb index it used
+ * to have. Run with -Dbenchmark=true.
+ */
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PoliciesHistoryHostGroupsBenchmarkTest {
+
+    private static final String ORG_ID = "benchmark-org-id";
+    private static final UUID POLICY_ID = UUID.randomUUID();
+    private static final int ENTRIES = 1_000_000;
+    private static final int GROUPS = 200;
+    private static final int RUNS = 5;
+
+    @Inject
+    Session session;
+
+    @Inject
+    PoliciesHistoryRepository repository;
+
+    private List<UUID> groupIds;
+
+    @BeforeAll
+    void setUp() {
+        QuarkusTransaction.requiringNew().timeout(600).run(() -> {
+            // One entry in ten is from a host in no group, the others are spread over the groups
+            session.createNativeQuery("INSERT INTO policies_history (id, org_id, policy_id, ctime, host_id, host_name, host_groups) " +
+                            "SELECT gen_random_uuid(), :orgId, :policyId, " +
+                            "CAST(EXTRACT(EPOCH FROM NOW() - n * INTERVAL '1 second') * 1000 AS bigint), 'host-' || n, 'host-' || n, " +
+                            "CASE WHEN n % 10 = 0 THEN CAST('[]' AS jsonb) " +
+                            "ELSE jsonb_build_array(jsonb_build_object('id', CAST(md5('group-' || n % :groups) AS uuid))) END " +
+                            "FROM generate_series(1, :entries) AS n")
+                    .setParameter("orgId", ORG_ID)
+                    .setParameter("policyId", POLICY_ID.toString())
+                    .setParameter("groups", GROUPS)
+                    .setParameter("entries", ENTRIES)
+                    .executeUpdate();
+            session.createNativeQuery("CREATE INDEX benchmark_host_groups_jsonb_idx ON policies_history USING gin (host_groups jsonb_path_ops)")
+                    .executeUpdate();
+            session.createNativeQuery("ANALYZE policies_history").executeUpdate();
+        });
+        groupIds = session.createNativeQuery("SELECT CAST(md5('group-' || n) AS uuid) FROM generate_series(0, :groups - 1) AS n", UUID.class)
+                .setParameter("groups", GROUPS)
+                .getResultList();
+    }
+
+    @AfterAll
+    void tearDown() {
+        QuarkusTransaction.requiringNew().timeout(600).run(() -> {
+            session.createNativeQuery("DROP INDEX benchmark_host_groups_jsonb_idx").executeUpdate();
+            session.createNativeQuery("DELETE FROM policies_history WHERE org_id = :orgId")
+                    .setParameter("orgId", ORG_ID)
+                    .executeUpdate();
+        });
+    }
+
+    @Test
+    void hostGroupLookups() {
+        Pager pager = Pager.builder().itemsPerPage(50).build();
+        for (int groups : List.of(1, 10, 100)) {
+            List<UUID> hostGroupIds = new ArrayList<>(groupIds.subList(0, groups));
+            hostGroupIds.add(null);
+
+            long count = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                count = repository.findWithCount(ORG_ID, hostGroupIds, POLICY_ID, pager).getTotalCount();
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000 / RUNS;
+
+            long formerCount = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                formerCount = formerCount(hostGroupIds);
+            }
+            long formerMillis = (System.nanoTime() - start) / 1_000_000 / RUNS;
+
+            assertEquals(formerCount, count);
+            Log.infof("%d groups, %d entries: %d ms per page, %d ms per count with one arm per group",
+                    groups, count, millis, formerMillis);
+        }
+    }
+
+    private long formerCount(List<UUID> hostGroupIds) {
+        List<String> arms = new ArrayList<>();
+        arms.add("1=0");
+        for (UUID hostGroupId : hostGroupIds) {
+            arms.add(hostGroupId == null
+                    ? "host_groups = '[]'"
+                    : "host_groups @> CAST('[{\"id\":\"" + hostGroupId + "\"}]' AS jsonb)");
+        }
+        return session.createNativeQuery("SELECT COUNT(*) FROM policies_history WHERE org_id = :orgId AND policy_id = :policyId " +
+                        "AND (" + String.join(" OR ", arms) + ")", Long.class)
+                .setParameter("orgId", ORG_ID)
+                .setParameter("policyId", POLICY_ID.toString())
+                .getSingleResult();
+    }
+}
@@ -2,10 +2,16 @@ package com.redhat.cloud.policies.app.model.history;
 
 import com.redhat.cloud.policies.app.PoliciesHistoryTestHelper;
 import com.redhat.cloud.policies.app.TestLifecycleManager;
+import com.redhat.cloud.policies.app.model.pager.Cursor;
+import com.redhat.cloud.policies.app.model.pager.Page;
 import com.redhat.cloud.policies.app.model.pager.Pager;
 
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.panache.common.Sort;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.BeforeAll;
@@ -14,6 +20,7 @@ import jakarta.inject.Inject;
 import java.util.List;
 import java.util.UUID;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.EQUAL;
 import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.LIKE;
@@ -21,6 +28,8 @@ import static com.redhat.cloud.policies.app.model.filter.Filter.Operator.NOT_EQU
 import static io.quarkus.panache.common.Sort.Direction.Ascending;
 import static io.quarkus.panache.common.Sort.Direction.Descending;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
@@ -52,6 +61,9 @@ class PoliciesHistoryRepositoryTest {
     @Inject
     PoliciesHistoryRepository repository;
 
+    @Inject
+    Session session;
+
     private static List<PoliciesHistoryEntry> insertedEntries;
 
     @BeforeAll
@@ -168,6 +180,13 @@ class PoliciesHistoryRepositoryTest {
         assertTrue(repository.find(ORG_ID_3, List.of(UUID.randomUUID()), POLICY_ID_3, pager).isEmpty());
     }
 
+    @Test
+    void testHostGroupsEmpty() {
+        Pager pager = Pager.builder().build();
+        assertEquals(0, repository.count(ORG_ID_3, List.of(), POLICY_ID_3, pager));
+        assertTrue(repository.find(ORG_ID_3, List.of(), POLICY_ID_3, pager).isEmpty());
+    }
+
     @Test
     void testHostGroupsWithNoGroup() {
         Pager pager = Pager.builder().build();
@@ -239,4 +258,230 @@ class PoliciesHistoryRepositoryTest {
             }
         }
     }
+
+    @Test
+    void testFindWithCountMatchesCountAndFind() {
+        List<UUID> ungroupedAndGroup1 = new ArrayList<UUID>();
+        ungroupedAndGroup1.add((UUID) null);
+        ungroupedAndGroup1.add(GROUP_ID_1);
+        List<List<UUID>> hostGroupsLookups = new ArrayList<>();
+        hostGroupsLookups.add(null);
+        hostGroupsLookups.add(ungroupedAndGroup1);
+
+        List<Consumer<Pager.PagerBuilder>> filters = List.of(
+            builder -> { },
+            builder -> builder.filter("name", EQUAL, HOST_NAME_2),
+            builder -> builder.filter("name", LIKE, "host-name"),
+            builder -> builder.filter("name", NOT_EQUAL, HOST_NAME_1),
+            builder -> builder.filter("id", EQUAL, HOST_ID_1),
+            builder -> builder.filter("id", LIKE, "foo"),
+            builder -> builder.filter("id", NOT_EQUAL, HOST_ID_2),
+            builder -> builder.filter("id", LIKE, "host-id").filter("name", NOT_EQUAL, "unknown")
+        );
+        List<Consumer<Pager.PagerBuilder>> sorts = List.of(
+            builder -> { },
+            builder -> builder.addSort("ctime", Ascending),
+            builder -> builder.addSort("ctime", Descending),
+            builder -> builder.addSort("name", Ascending),
+            builder -> builder.addSort("hostName", Descending),
+            builder -> builder.addSort("name", Descending).addSort("ctime", Ascending)
+        );
+
+        for (List<UUID> hostGroupIds : hostGroupsLookups) {
+            for (Consumer<Pager.PagerBuilder> filter : filters) {
+                for (Consumer<Pager.PagerBuilder> sort : sorts) {
+                    // Every page of size 2, including one past the end, and then everything at once.
+                    for (int offset = 0; offset <= 6; offset += 2) {
+                        assertFindWithCountMatches(hostGroupIds, filter, sort, Pager.builder().itemsPerPage(2).page(offset));
+                    }
+                    assertFindWithCountMatches(hostGroupIds, filter, sort, Pager.builder().itemsPerPage(Pager.NO_LIMIT));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSeekMatchesFind() {
+        for (Sort.Direction direction : List.of(Ascending, Descending)) {
+            Pager all = Pager.builder().itemsPerPage(Pager.NO_LIMIT).addSort("ctime", direction).build();
+            List<Long> expected = repository.find(ORG_ID_2, null, POLICY_ID_2, all).stream().map(PoliciesHistoryEntry::getCtime).toList();
+
+            // Pages of 1 and 3 entries, so that the two entries with the same ctime end up on both sides of a cursor
+            for (int limit : List.of(1, 3)) {
+                List<PoliciesHistoryEntry> seen = new ArrayList<>();
+                Cursor cursor = null;
+                do {
+                    Pager pager = Pager.builder().itemsPerPage(limit).addSort("ctime", direction).keyset(cursor).build();
+                    Page<PoliciesHistoryEntry> page = repository.seek(ORG_ID_2, null, POLICY_ID_2, pager);
+                    assertEquals(4, page.getTotalCount());
+                    seen.addAll(page);
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+
+                String context = direction + " " + limit;
+                assertEquals(expected, seen.stream().map(PoliciesHistoryEntry::getCtime).toList(), context);
+                assertEquals(4, seen.stream().map(PoliciesHistoryEntry::getId).distinct().count(), context);
+            }
+        }
+    }
+
+    @Test
+    void testSeekAcrossEqualCtimes() {
+        UUID policyId = UUID.randomUUID();
+        for (int i = 0; i < 7; i++) {
+            helper.createPoliciesHistoryEntry(TENANT_ID_1, ORG_ID_1, policyId, HOST_ID_1, HOST_NAME_1, i < 5 ? 10L : 20L);
+        }
+
+        try {
+            for (Sort.Direction direction : List.of(Ascending, Descending)) {
+                List<UUID> seen = new ArrayList<>();
+                List<Long> ctimes = new ArrayList<>();
+                Cursor cursor = null;
+                do {
+                    Pager pager = Pager.builder().itemsPerPage(2).addSort("ctime", direction).keyset(cursor).build();
+                    Page<PoliciesHistoryEntry> page = repository.seek(ORG_ID_1, null, policyId, pager);
+                    page.forEach(entry -> {
+                        seen.add(entry.getId());
+                        ctimes.add(entry.getCtime());
+                    });
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+
+                assertEquals(7, seen.size(), direction.toString());
+                assertEquals(7, seen.stream().distinct().count(), direction.toString());
+                List<Long> expected = direction == Ascending
+                        ? List.of(10L, 10L, 10L, 10L, 10L, 20L, 20L)
+                        : List.of(20L, 20L, 10L, 10L, 10L, 10L, 10L);
+                assertEquals(expected, ctimes, direction.toString());
+            }
+        } finally {
+            QuarkusTransaction.requiringNew().run(() ->
+                    session.createNativeQuery("DELETE FROM policies_history WHERE policy_id = :policyId")
+                            .setParameter("policyId", policyId.toString())
+                            .executeUpdate()
+            );
+        }
+    }
+
+    @Test
+    void testSeekWithoutCount() {
+        Pager pager = Pager.builder().itemsPerPage(10).keyset(null).count(Pager.CountMode.NONE).build();
+        Page<PoliciesHistoryEntry> page = repository.seek(ORG_ID_2, null, POLICY_ID_2, pager);
+        assertEquals(4, page.size());
+        assertEquals(Page.UNKNOWN_COUNT, page.getTotalCount());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void testSeekByHostNameNotSupported() {
+        Pager pager = Pager.builder().addSort("name", Ascending).keyset(null).build();
+        assertThrows(IllegalArgumentException.class, () -> repository.seek(ORG_ID_2, null, POLICY_ID_2, pager));
+    }
+
+    @Test
+    void testSubstringSearchesUseTrigramIndexes() {
+        UUID policyId = UUID.randomUUID();
+        QuarkusTransaction.requiringNew().run(() -> {
+            session.createNativeQuery("INSERT INTO policies_history (id, org_id, policy_id, ctime, host_id, host_name) " +
+                            "SELECT gen_random_uuid(), :orgId, :policyId, 1, md5('id-' || n), md5('name-' || n) " +
+                            "FROM generate_series(1, 20000) AS n")
+                    .setParameter("orgId", ORG_ID_1)
+                    .setParameter("policyId", policyId.toString())
+                    .executeUpdate();
+            session.createNativeQuery("ANALYZE policies_history").executeUpdate();
+        });
+
+        try {
+            for (String field : List.of("name", "id")) {
+                Pager pager = Pager.builder().filter(field, LIKE, "abc12").build();
+                NativeQuery<?> explain = session.createNativeQuery("EXPLAIN " + PoliciesHistoryRepository.getFindSql(null, pager), String.class)
+                        .setParameter("orgId", ORG_ID_1)
+                        .setParameter("policyId", policyId.toString());
+                PoliciesHistoryRepository.setFiltersValues(explain, pager.getFilter().getItems());
+                String plan = String.join("\n", explain.getResultList().stream().map(String::valueOf).toList());
+
+                String column = field.equals("name") ? "host_name" : "host_id";
+                assertTrue(plan.contains("Index Cond: (lower((" + column + ")::text) ~~"), plan);
+            }
+        } finally {
+            QuarkusTransaction.requiringNew().run(() ->
+                    session.createNativeQuery("DELETE FROM policies_history WHERE policy_id = :policyId")
+                            .setParameter("policyId", policyId.toString())
+                            .executeUpdate()
+            );
+        }
+    }
+
+    @Test
+    void testUnfilteredCountReadsTriggerStats() {
+        UUID policyId = UUID.randomUUID();
+        helper.createPoliciesHistoryEntry(TENANT_ID_1, ORG_ID_1, policyId, HOST_ID_1, HOST_NAME_1, 1L);
+        helper.createPoliciesHistoryEntry(TENANT_ID_1, ORG_ID_1, policyId, HOST_ID_2, HOST_NAME_2, 2L);
+        Pager pager = Pager.builder().build();
+        Pager filtered = Pager.builder().filter("name", LIKE, HOST_NAME_1).build();
+        assertEquals(2, repository.count(ORG_ID_1, null, policyId, pager));
+        assertEquals(2, repository.findWithCount(ORG_ID_1, null, policyId, pager).getTotalCount());
+
+        try {
+            // The stats are read without counting the history, the filtered requests still count it
+            QuarkusTransaction.requiringNew().run(() ->
+                    session.createNativeQuery("UPDATE policy_trigger_stats SET trigger_count = 42 WHERE org_id = :orgId AND policy_id = :policyId")
+                            .setParameter("orgId", ORG_ID_1)
+                            .setParameter("policyId", policyId.toString())
+                            .executeUpdate()
+            );
+            assertEquals(42, repository.count(ORG_ID_1, null, policyId, pager));
+            assertEquals(42, repository.findWithCount(ORG_ID_1, null, policyId, pager).getTotalCount());
+            assertEquals(1, repository.count(ORG_ID_1, null, policyId, filtered));
+            List<UUID> ungrouped = new ArrayList<>();
+            ungrouped.add(null);
+            assertEquals(2, repository.count(ORG_ID_1, ungrouped, policyId, pager));
+        } finally {
+            QuarkusTransaction.requiringNew().run(() -> {
+                session.createNativeQuery("DELETE FROM policies_history WHERE policy_id = :policyId")
+                        .setParameter("policyId", policyId.toString())
+                        .executeUpdate();
+                session.createNativeQuery("DELETE FROM policy_trigger_stats WHERE policy_id = :policyId")
+                        .setParameter("policyId", policyId.toString())
+                        .executeUpdate();
+            });
+        }
+    }
+
+    @Test
+    void testHistogramHostGroups() {
+        List<HistogramItem> all = List.of(new HistogramItem(0L, 3L));
+        assertEquals(all, repository.histogram(ORG_ID_3, null, POLICY_ID_3, HistogramBucket.HOUR, 0L));
+        assertEquals(all, repository.histogram(ORG_ID_3, null, POLICY_ID_3, HistogramBucket.DAY, 0L));
+
+        List<UUID> hostGroupIds = new ArrayList<>();
+        hostGroupIds.add(GROUP_ID_1);
+        hostGroupIds.add(null);
+        assertEquals(List.of(new HistogramItem(0L, 2L)), repository.histogram(ORG_ID_3, hostGroupIds, POLICY_ID_3, HistogramBucket.DAY, 0L));
+        assertTrue(repository.histogram(ORG_ID_3, List.of(), POLICY_ID_3, HistogramBucket.DAY, 0L).isEmpty());
+        assertTrue(repository.histogram(ORG_ID_3, null, POLICY_ID_3, HistogramBucket.HOUR, 2L * 3_600_000L).isEmpty());
+    }
+
+    @Test
+    void testHistogramUnknownBucket() {
+        assertEquals(HistogramBucket.HOUR, HistogramBucket.fromString(null));
+        assertEquals(HistogramBucket.DAY, HistogramBucket.fromString("Day"));
+        assertThrows(IllegalArgumentException.class, () -> HistogramBucket.fromString("week"));
+    }
+
+    private void assertFindWithCountMatches(List<UUID> hostGroupIds, Consumer<Pager.PagerBuilder> filter,
+                                            Consumer<Pager.PagerBuilder> sort, Pager.PagerBuilder builder) {
+        filter.accept(builder);
+        sort.accept(builder);
+        Pager pager = builder.build();
+
+        for (String orgId : List.of(ORG_ID_2, ORG_ID_3)) {
+            UUID policyId = orgId.equals(ORG_ID_2) ? POLICY_ID_2 : POLICY_ID_3;
+            Page<PoliciesHistoryEntry> page = repository.findWithCount(orgId, hostGroupIds, policyId, pager);
+            String context = String.format("org=%s, hostGroups=%s, filter=%s, sort=%s, offset=%d, limit=%d", orgId,
+                    hostGroupIds, pager.getFilter().getQuery(), pager.getSort().getColumns(), pager.getOffset(), pager.getLimit());
+            assertEquals(repository.count(orgId, hostGroupIds, policyId, pager), page.getTotalCount(), context);
+            assertEquals(repository.find(orgId, hostGroupIds, policyId, pager), new ArrayList<>(page), context);
+        }
+    }
 }
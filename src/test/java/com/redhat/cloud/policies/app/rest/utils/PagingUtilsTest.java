@@ -1,11 +1,19 @@
 package com.redhat.cloud.policies.app.rest.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.redhat.cloud.policies.app.model.ColumnGetter;
 import com.redhat.cloud.policies.app.model.ColumnInfo;
+import com.redhat.cloud.policies.app.model.filter.Filter;
+import com.redhat.cloud.policies.app.model.pager.Cursor;
 import com.redhat.cloud.policies.app.model.pager.Page;
 import com.redhat.cloud.policies.app.model.pager.Pager;
 import io.quarkus.panache.common.Sort;
@@ -16,7 +24,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
@@ -221,6 +232,57 @@ class PagingUtilsTest {
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
     }
 
+    @Test
+    public void responseBuilderStableEtag() {
+        Pager pager = Pager.builder().itemsPerPage(10).page(0).build();
+        String etag = PagingUtils.responseBuilder(new Page<>(List.of("Hello", "World"), pager, 54)).build().getHeaderString("ETag");
+
+        assertEquals(etag, PagingUtils.responseBuilder(new Page<>(List.of("Hello", "World"), pager, 54)).build().getHeaderString("ETag"));
+        assertNotEquals(etag, PagingUtils.responseBuilder(new Page<>(List.of("Hello", "World"), pager, 55)).build().getHeaderString("ETag"));
+        assertNotEquals(etag, PagingUtils.responseBuilder(new Page<>(List.of("Hello", "there"), pager, 54)).build().getHeaderString("ETag"));
+    }
+
+    @Test
+    public void writePagedResponse() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> items = List.of("Hello", "World", "!");
+        for (Pager.CountMode countMode : Pager.CountMode.values()) {
+            Pager pager = Pager.builder().itemsPerPage(Pager.NO_LIMIT).count(countMode).build();
+            long totalCount = countMode == Pager.CountMode.NONE ? Page.UNKNOWN_COUNT : items.size();
+
+            List<String> written = new ArrayList<>();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PagingUtils.writePagedResponse(objectMapper, output, new Page<>(List.of(), pager, totalCount), items.stream(), written::add);
+
+            JsonNode expected = objectMapper.valueToTree(new PagingUtils.PagedResponse<>(new Page<>(items, pager, totalCount)));
+            assertEquals(expected, objectMapper.readTree(output.toByteArray()));
+            assertEquals(items, written);
+        }
+    }
+
+    @Test
+    public void pagerFingerprint() {
+        Pager pager = Pager.builder().itemsPerPage(10).page(20).addSort("name", Sort.Direction.Ascending)
+                .filter("name", Filter.Operator.LIKE, "foo").build();
+        Pager samePager = Pager.builder().itemsPerPage(10).page(20).addSort("name", Sort.Direction.Ascending)
+                .filter("name", Filter.Operator.LIKE, "foo").build();
+        assertEquals(pager.fingerprint(), samePager.fingerprint());
+
+        List<Pager> otherPagers = List.of(
+                Pager.builder().itemsPerPage(10).page(30).addSort("name", Sort.Direction.Ascending)
+                        .filter("name", Filter.Operator.LIKE, "foo").build(),
+                Pager.builder().itemsPerPage(10).page(20).addSort("name", Sort.Direction.Descending)
+                        .filter("name", Filter.Operator.LIKE, "foo").build(),
+                Pager.builder().itemsPerPage(10).page(20).addSort("name", Sort.Direction.Ascending)
+                        .filter("name", Filter.Operator.LIKE, "bar").build(),
+                Pager.builder().itemsPerPage(10).page(20).addSort("name", Sort.Direction.Ascending)
+                        .filter("name", Filter.Operator.LIKE, "foo").count(Pager.CountMode.NONE).build()
+        );
+        for (Pager otherPager : otherPagers) {
+            assertNotEquals(pager.fingerprint(), otherPager.fingerprint());
+        }
+    }
+
     @Test
     public void responseBuilderEmpty() {
         Page<String> page = new Page<>(
@@ -234,5 +296,141 @@ class PagingUtilsTest {
         assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
     }
 
+    @Test
+    void extractFields() throws URISyntaxException {
+        when(columnGetter.get(eq("is_enabled"))).thenReturn(new ColumnInfo("is_enabled", "isEnabled", true, true, true));
+        when(columnGetter.getByFieldName(eq("name"))).thenReturn(new ColumnInfo("name", "name", true, true, true));
+        when(columnGetter.getByFieldName(eq("isEnabled"))).thenReturn(new ColumnInfo("is_enabled", "isEnabled", true, true, true));
+
+        assertEquals(List.of(), getPagerFromUriString("https://foo").getFields());
+        // Column and property names are both accepted, and map to the entity fields
+        assertEquals(List.of("name", "isEnabled"), getPagerFromUriString("https://foo?fields=name,is_enabled").getFields());
+        assertEquals(List.of("isEnabled", "name"), getPagerFromUriString("https://foo?fields=isEnabled&fields=name,%20is_enabled").getFields());
+    }
+
+    @Test
+    void extractInvalidFields() throws URISyntaxException {
+        for (String fields : List.of("foo", "nonexisting", "", ",")) {
+            UriInfo info = new ResteasyUriInfo(new URI("https://foo?fields=" + fields));
+            assertThrows(IllegalArgumentException.class, () -> {
+                PagingUtils.extractPager(info, columnGetter);
+            }, fields);
+        }
+    }
+
+    @Test
+    void extractKeysetFirstPage() throws URISyntaxException {
+        Pager pager = getPagerFromUriString("https://foo?cursor=&limit=10&offset=20&sortColumn=foo&sortDirection=desc");
+        assertTrue(pager.isKeyset());
+        assertNull(pager.getCursor());
+        assertEquals(0, pager.getOffset());
+        assertEquals("foo", pager.getSort().getColumns().get(0).getName());
+        assertEquals(Sort.Direction.Descending, pager.getSort().getColumns().get(0).getDirection());
+    }
+
+    @Test
+    void extractKeysetSortFromCursor() throws URISyntaxException {
+        when(columnGetter.getByFieldName(eq("foo"))).thenReturn(new ColumnInfo("foo", "foo", true, true));
+        Cursor cursor = new Cursor("foo", Sort.Direction.Descending, UUID.randomUUID(), "some\nvalue");
+        Pager pager = getPagerFromUriString("https://foo?cursor=" + cursor.encode());
+        assertTrue(pager.isKeyset());
+        assertEquals(cursor, pager.getCursor());
+        assertEquals("foo", pager.getSort().getColumns().get(0).getName());
+        assertEquals(Sort.Direction.Descending, pager.getSort().getColumns().get(0).getDirection());
+    }
+
+    @Test
+    void extractKeysetCursorSortMismatch() throws URISyntaxException {
+        Cursor cursor = new Cursor("foo", Sort.Direction.Descending, UUID.randomUUID(), "value");
+        UriInfo info = new ResteasyUriInfo(new URI("https://foo?sortColumn=bar&cursor=" + cursor.encode()));
+        assertThrows(IllegalArgumentException.class, () -> {
+            PagingUtils.extractPager(info, columnGetter);
+        });
+    }
+
+    @Test
+    void extractKeysetCursorUnknownColumn() throws URISyntaxException {
+        Cursor cursor = new Cursor("nonexisting", Sort.Direction.Ascending, UUID.randomUUID(), "value");
+        UriInfo info = new ResteasyUriInfo(new URI("https://foo?cursor=" + cursor.encode()));
+        assertThrows(IllegalArgumentException.class, () -> {
+            PagingUtils.extractPager(info, columnGetter);
+        });
+    }
+
+    @Test
+    void extractKeysetInvalidCursor() throws URISyntaxException {
+        UriInfo info = new ResteasyUriInfo(new URI("https://foo?cursor=not-a-cursor"));
+        assertThrows(IllegalArgumentException.class, () -> {
+            PagingUtils.extractPager(info, columnGetter);
+        });
+    }
+
+    @Test
+    void extractKeysetMultipleSortColumns() throws URISyntaxException {
+        UriInfo info = new ResteasyUriInfo(new URI("https://foo?cursor=&sortColumn=foo&sortColumn=bar"));
+        assertThrows(IllegalArgumentException.class, () -> {
+            PagingUtils.extractPager(info, columnGetter);
+        });
+    }
+
+    @Test
+    void keysetLinks() {
+        Cursor next = new Cursor("name", Sort.Direction.Ascending, UUID.randomUUID(), "World");
+        Page<String> page = new Page<>(
+                List.of("Hello", "World"),
+                Pager.builder().itemsPerPage(2).keyset(null).build(),
+                54,
+                next
+        );
+        PagingUtils.PagedResponse<String> response = new PagingUtils.PagedResponse<>(page);
+
+        assertTrue(response.links.get("first").endsWith("limit=2&cursor="));
+        assertTrue(response.links.get("next").endsWith("limit=2&cursor=" + next.encode()));
+        assertNull(response.links.get("last"));
+        assertNull(response.links.get("prev"));
+    }
+
+    @Test
+    void extractCountMode() throws URISyntaxException {
+        assertEquals(Pager.CountMode.EXACT, getPagerFromUriString("https://foo").getCountMode());
+        assertEquals(Pager.CountMode.ESTIMATE, getPagerFromUriString("https://foo?count=estimate").getCountMode());
+        assertEquals(Pager.CountMode.NONE, getPagerFromUriString("https://foo?count=None").getCountMode());
+    }
+
+    @Test
+    void extractCountModeWithTurkishLocale() throws URISyntaxException {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            assertEquals(Pager.CountMode.ESTIMATE, getPagerFromUriString("https://foo?count=estimate").getCountMode());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void extractInvalidCountMode() throws URISyntaxException {
+        UriInfo info = new ResteasyUriInfo(new URI("https://foo?count=maybe"));
+        assertThrows(IllegalArgumentException.class, () -> {
+            PagingUtils.extractPager(info, columnGetter);
+        });
+    }
+
+    @Test
+    public void responseBuilderWithoutCount() {
+        Page<String> page = new Page<>(
+                List.of("Hello", "World"),
+                Pager.builder().itemsPerPage(2).page(2).count(Pager.CountMode.NONE).build(),
+                true
+        );
+        Response response = PagingUtils.responseBuilder(page).build();
+        assertNull(response.getHeaderString("TotalCount"));
+
+        PagingUtils.PagedResponse<String> pagedResponse = new PagingUtils.PagedResponse<>(page);
+        assertNull(pagedResponse.meta.count);
+        assertNull(pagedResponse.links.get("last"));
+        assertTrue(pagedResponse.links.get("next").endsWith("limit=2&offset=4"));
+        assertTrue(pagedResponse.links.get("prev").endsWith("limit=2&offset=0"));
+    }
 
 }